@@ -1,278 +1,462 @@
-package org.hacker.core;
-
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-
-import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
-import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
-
-import org.hacker.exception.AssertException;
-
-import com.jfinal.core.Controller;
-import com.jfinal.kit.StrKit;
-import com.jfinal.plugin.activerecord.ActiveRecordException;
-import com.jfinal.plugin.activerecord.Model;
-import com.jfinal.plugin.activerecord.Table;
-import com.jfinal.plugin.activerecord.TableMapping;
-
-/**
- * BaseController 只提供基础方法
- * 
- * @version 1.0
- * @author Mr.J.(slashchenxiaojun@sina.com)
- * 
- * @date 2015-05-18
- * */
-public class BaseController extends Controller {
-  private  ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-  private  Validator validator = factory.getValidator();
-  
-	public void OK() {
-		renderStatus(0, "ok", null);
-	}
-	
-	public void OK(Object data) {
-		renderStatus(0, "ok", data);
-	}
-	
-	public void Error(Integer code, String msg) {
-		renderStatus(code, msg, null);
-	}
-	
-	protected void renderStatus(Integer code, String msg, Object data) {
-		setAttr("code", code);
-		setAttr("msg", msg);
-		setAttr("data", data);
-		renderJson(new String[] {"code", "msg", "data"});
-	}
-	
-	/**
-	 * 使用这个方法不是很高效，因为它需要反射N次newInstance
-	 * 
-	 * @param modelClass
-	 * @param modelName
-	 * @return
-	 */
-	protected <T> List<T> getModels(Class<T> modelClass, String modelName) {
-		Object obj = null;
-		try {
-			obj = modelClass.newInstance();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
-		
-		if (obj instanceof Model == false) {
-			throw new IllegalArgumentException("getModel only support class of Model, using getBean for other class.");
-		}
-		
-		List<T> list = null;
-		Model<?> model = (Model<?>)obj;
-		Table table = TableMapping.me().getTable(model.getClass());
-		if (table == null) {
-			throw new ActiveRecordException("The Table mapping of model: " + modelClass.getName() + 
-					" not exists or the ActiveRecordPlugin not start.");
-		}
-		
-		String modelNameAndDot = StrKit.notBlank(modelName) ? modelName + "." : null;
-		Map<String, String[]> parasMap = getParaMap();
-		// 对 paraMap进行遍历而不是对table.getColumnTypeMapEntrySet()进行遍历，以便支持 CaseInsensitiveContainerFactory
-		// 以及支持界面的 attrName有误时可以感知并抛出异常避免出错
-		for (Entry<String, String[]> entry : parasMap.entrySet()) {
-			String paraName = entry.getKey();
-			String attrName;
-			if (modelNameAndDot != null) {
-				if (paraName.startsWith(modelNameAndDot)) {
-					attrName = paraName.substring(modelNameAndDot.length());
-				} else {
-					continue ;
-				}
-			} else {
-				attrName = paraName;
-			}
-			
-			Class<?> colType = table.getColumnType(attrName);
-			if (colType == null) {
-				throw new ActiveRecordException("The model attribute " + attrName + " is not exists.");
-			}
-			
-			try {
-				String[] paraValueArray = entry.getValue();
-				
-				// deferred load list
-				if(list == null) {
-					list = new ArrayList<>(paraValueArray.length);
-					for(int i = 0; i < paraValueArray.length; i++) {
-						try {
-							list.add(modelClass.newInstance());
-						} catch (Exception e) {
-							throw new RuntimeException(e);
-						}
-					}
-				}
-				for(int i = 0; i < list.size(); i++) {
-					Model<?> model0 = (Model<?>)list.get(i);
-					String val = paraValueArray[i];
-					val = StrKit.isBlank(val) ? null : val;
-					Object value = val != null ? TypeConverter.convert(colType, val) : null;
-					if(value != null)
-						model0.set(attrName, value);
-				}
-			} catch (Exception e) {
-				throw new RuntimeException("Can not convert parameter: " + paraName, e);
-			}
-		}
-		
-		return list;
-	}
-	
-	/**
-	 * 使用hibernate-validator实现的JSR303验证model
-	 */
-	public <T> void JSR303Validator(T model) {
-	  Set<ConstraintViolation<T>> constraintViolations = validator.validate(model);
-	  if(constraintViolations.size() == 0) return;
-    for(ConstraintViolation<T> c : constraintViolations) {
-      throw new AssertException("Oop~ " + c.getPropertyPath() + " " + c.getMessage());
-    }
-	}
-	
-	public <T> void JSR303Validator(Collection<T> model) {
-	   for (T t : model) {
-	     JSR303Validator(t);
-	   }
-	}
-}
-
-final class TypeConverter {
-	
-	private static final String timeStampPattern = "yyyy-MM-dd HH:mm:ss";
-	private static final String datePattern = "yyyy-MM-dd";
-	private static final int timeStampLen = timeStampPattern.length();
-	
-	/**
-	 * test for all types of mysql
-	 * 
-	 * 表单提交测试结果:
-	 * 1: 表单中的域,就算不输入任何内容,也会传过来 "", 也即永远不可能为 null.
-	 * 2: 如果输入空格也会提交上来
-	 * 3: 需要考 model中的 string属性,在传过来 "" 时是该转成 null还是不该转换,
-	 *    我想, 因为用户没有输入那么肯定是 null, 而不该是 ""
-	 * 
-	 * 注意: 1:当type参数不为String.class, 且参数s为空串blank的情况,
-	 *       此情况下转换结果为 null, 而不应该抛出异常
-	 *      2:调用者需要对被转换数据做 null 判断，参见 ModelInjector 的两处调用
-	 */
-	public static final Object convert(Class<?> type, String s) throws ParseException {
-		// mysql type: varchar, char, enum, set, text, tinytext, mediumtext, longtext
-		if (type == String.class) {
-			return ("".equals(s) ? null : s);	// 用户在表单域中没有输入内容时将提交过来 "", 因为没有输入,所以要转成 null.
-		}
-		s = s.trim();
-		if ("".equals(s)) {	// 前面的 String跳过以后,所有的空字符串全都转成 null,  这是合理的
-			return null;
-		}
-		// 以上两种情况无需转换,直接返回, 注意, 本方法不接受null为 s 参数(经测试永远不可能传来null, 因为无输入传来的也是"")
-		
-		
-		// mysql type: int, integer, tinyint(n) n > 1, smallint, mediumint
-		if (type == Integer.class || type == int.class) {
-			return Integer.parseInt(s);
-		}
-		
-		// mysql type: bigint
-		if (type == Long.class || type == long.class) {
-			return Long.parseLong(s);
-		}
-		
-		// java.util.Date 类型专为传统 java bean 带有该类型的 setter 方法转换做准备，万不可去掉
-		// 经测试 JDBC 不会返回 java.util.Data 类型。java.sql.Date, java.sql.Time,java.sql.Timestamp 全部直接继承自 java.util.Data, 所以 getDate可以返回这三类数据
-		if (type == java.util.Date.class) {
-			if (s.length() >= timeStampLen) {	// if (x < timeStampLen) 改用 datePattern 转换，更智能
-				// Timestamp format must be yyyy-mm-dd hh:mm:ss[.fffffffff]
-				// return new java.util.Date(java.sql.Timestamp.valueOf(s).getTime());	// error under jdk 64bit(maybe)
-				return new SimpleDateFormat(timeStampPattern).parse(s);
-			}
-			else {
-				// return new java.util.Date(java.sql.Date.valueOf(s).getTime());	// error under jdk 64bit
-				return new SimpleDateFormat(datePattern).parse(s);
-			}
-		}
-		
-		// mysql type: date, year
-		if (type == java.sql.Date.class) {
-			if (s.length() >= timeStampLen) {	// if (x < timeStampLen) 改用 datePattern 转换，更智能
-				// return new java.sql.Date(java.sql.Timestamp.valueOf(s).getTime());	// error under jdk 64bit(maybe)
-				return new java.sql.Date(new SimpleDateFormat(timeStampPattern).parse(s).getTime());
-			}
-			else {
-				// return new java.sql.Date(java.sql.Date.valueOf(s).getTime());	// error under jdk 64bit
-				return new java.sql.Date(new SimpleDateFormat(datePattern).parse(s).getTime());
-			}
-		}
-		
-		// mysql type: time
-		if (type == java.sql.Time.class) {
-			return java.sql.Time.valueOf(s);
-		}
-		
-		// mysql type: timestamp, datetime
-		if (type == java.sql.Timestamp.class) {
-			if (s.length() >= timeStampLen) {
-				return java.sql.Timestamp.valueOf(s);
-			}
-			else {
-				return new java.sql.Timestamp(new SimpleDateFormat(datePattern).parse(s).getTime());
-			}
-		}
-		
-		// mysql type: real, double
-		if (type == Double.class || type == double.class) {
-			return Double.parseDouble(s);
-		}
-		
-		// mysql type: float
-		if (type == Float.class || type == float.class) {
-			return Float.parseFloat(s);
-		}
-		
-		// mysql type: bit, tinyint(1)
-		if (type == Boolean.class || type == boolean.class) {
-			String value = s.toLowerCase();
-			if ("1".equals(value) || "true".equals(value)) {
-				return Boolean.TRUE;
-			}
-			else if ("0".equals(value) || "false".equals(value)) {
-				return Boolean.FALSE;
-			}
-			else {
-				throw new RuntimeException("Can not parse to boolean type of value: " + s);
-			}
-		}
-		
-		// mysql type: decimal, numeric
-		if (type == java.math.BigDecimal.class) {
-			return new java.math.BigDecimal(s);
-		}
-		
-		// mysql type: unsigned bigint
-		if (type == java.math.BigInteger.class) {
-			return new java.math.BigInteger(s);
-		}
-		
-		// mysql type: binary, varbinary, tinyblob, blob, mediumblob, longblob. I have not finished the test.
-		if (type == byte[].class) {
-			return s.getBytes();
-		}
-		
-		throw new RuntimeException(type.getName() + " can not be converted, please use other type of attributes in your model!");
-	}
-}
-
+package org.hacker.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.validation.ConstraintViolation;
+
+import org.hacker.exception.AssertException;
+
+import com.jfinal.core.Controller;
+
+/**
+ * BaseController 只提供基础方法
+ * 
+ * @version 1.0
+ * @author Mr.J.(slashchenxiaojun@sina.com)
+ * 
+ * @date 2015-05-18
+ * */
+public class BaseController extends Controller {
+	// getModelsFromJson(Class)每次从请求体中读取的model数量，只影响读取时的缓冲大小
+	private static final int JSON_CHUNK_SIZE = 1000;
+  
+	public void OK() {
+		renderStatus(0, "ok", null);
+	}
+	
+	public void OK(Object data) {
+		renderStatus(0, "ok", data);
+	}
+	
+	public void Error(Integer code, String msg) {
+		renderStatus(code, msg, null);
+	}
+	
+	protected void renderStatus(Integer code, String msg, Object data) {
+		setAttr("code", code);
+		setAttr("msg", msg);
+		setAttr("data", data);
+		renderJson(new String[] {"code", "msg", "data"});
+	}
+	
+	/**
+	 * 把查询结果直接以xlsx下载，逐行读取并写入响应，不生成List和临时文件(见XlsxRender)
+	 * 
+	 * @param fileName 下载的文件名
+	 * @param sql 查询语句
+	 * @param paras 查询参数
+	 * @param argumentNames 参数名称
+	 * @param argumentTypes 参数类型
+	 * @param title 标题
+	 * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+	 */
+	protected void renderXlsx(String fileName, String sql, Object[] paras, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
+		render(new XlsxRender(fileName, sql, paras, argumentNames, argumentTypes, title, customDateFormat));
+	}
+	
+	/**
+	 * 把表单参数数组(modelName.attr=v1&modelName.attr=v2...)绑定成model列表
+	 * 构造器和每一列的类型转换按(modelClass, modelName)缓存在ModelBinder中，只在第一次调用时解析
+	 * 
+	 * @param modelClass
+	 * @param modelName
+	 * @return 没有匹配的参数时返回null
+	 */
+	protected <T> List<T> getModels(Class<T> modelClass, String modelName) {
+		return ModelBinder.of(modelClass, modelName).bind(getParaMap());
+	}
+	
+	/**
+	 * 从请求体中的JSON数组([{"name": "a"}, {"name": "b"}])绑定model列表，key是model的属性名
+	 * 请求体是逐步解析的，但结果仍然全部在内存中，数据量大时使用分批的版本
+	 */
+	protected <T> List<T> getModelsFromJson(Class<T> modelClass) {
+		final List<T> list = new ArrayList<>();
+		getModelsFromJson(modelClass, JSON_CHUNK_SIZE, new ChunkCallback<T>() {
+			@Override
+			public void call(List<T> chunk) {
+				list.addAll(chunk);
+			}
+		});
+		return list;
+	}
+	
+	/**
+	 * 使用fastjson的JSONReader流式读取请求体中的JSON数组，每读满chunkSize个model调用一次callback，
+	 * 可以在读完请求体之前就开始批量添加:
+	 * 
+	 * <pre>
+	 * getModelsFromJson(Movie.class, 1000, new ChunkCallback&lt;Movie&gt;() {
+	 *   public void call(List&lt;Movie&gt; chunk) {
+	 *     movieService.batchInsert(chunk);
+	 *   }
+	 * });
+	 * </pre>
+	 * 
+	 * @return model的数量
+	 */
+	protected <T> int getModelsFromJson(Class<T> modelClass, int chunkSize, ChunkCallback<T> callback) {
+		Reader reader;
+		try {
+			reader = getRequest().getReader();
+		} catch (IOException e) {
+			throw new RuntimeException("Oop! can't read request body.", e);
+		}
+		return ModelBinder.of(modelClass, null).bindJson(reader, chunkSize, callback);
+	}
+	
+	/**
+	 * 使用hibernate-validator实现的JSR303验证model
+	 * 验证器是进程内共享的(ModelValidator)，不会在每个请求中重新创建
+	 */
+	public <T> void JSR303Validator(T model) {
+	  Set<ConstraintViolation<T>> constraintViolations = ModelValidator.me().validate(model);
+	  if(constraintViolations.size() == 0) return;
+    for(ConstraintViolation<T> c : constraintViolations) {
+      throw new AssertException("Oop~ " + c.getPropertyPath() + " " + c.getMessage());
+    }
+	}
+	
+	public <T> void JSR303Validator(Collection<T> model) {
+	   for (T t : model) {
+	     JSR303Validator(t);
+	   }
+	}
+	
+	/**
+	 * 验证所有model并返回全部的违反项(带行号)，数量较多时并行验证，用法:
+	 * 
+	 * <pre>
+	 * List&lt;ModelValidator.Violation&gt; violations = JSR303ValidatorAll(movies);
+	 * if (!violations.isEmpty()) {
+	 *   renderStatus(1, "validation fail", violations);
+	 *   return;
+	 * }
+	 * </pre>
+	 * 
+	 * @return 没有违反项时返回空列表
+	 */
+	public <T> List<ModelValidator.Violation> JSR303ValidatorAll(Collection<T> model) {
+	  return ModelValidator.me().validateAll(model);
+	}
+}
+
+final class TypeConverter {
+	
+	private static final String timeStampPattern = "yyyy-MM-dd HH:mm:ss";
+	private static final String datePattern = "yyyy-MM-dd";
+	private static final int timeStampLen = timeStampPattern.length();
+	private static final int dateLen = datePattern.length();
+	
+	// 固定格式的日期直接用Calendar计算，每个线程一个，不需要每次创建SimpleDateFormat
+	private static final ThreadLocal<Calendar> calendar = new ThreadLocal<Calendar>() {
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+	
+	/**
+	 * 一种类型的转换器，由forType()确定一次，转换时不需要再比较类型
+	 */
+	interface Converter {
+		Object convert(String s) throws ParseException;
+	}
+	
+	/**
+	 * 除String以外的类型: 先trim, 空串转成null
+	 */
+	private static abstract class TrimConverter implements Converter {
+		@Override
+		public final Object convert(String s) throws ParseException {
+			s = s.trim();
+			if ("".equals(s)) {	// 前面的 String跳过以后,所有的空字符串全都转成 null,  这是合理的
+				return null;
+			}
+			return parse(s);
+		}
+		
+		abstract Object parse(String s) throws ParseException;
+	}
+	
+	private static final Converter STRING = new Converter() {
+		@Override
+		public Object convert(String s) {
+			return ("".equals(s) ? null : s);	// 用户在表单域中没有输入内容时将提交过来 "", 因为没有输入,所以要转成 null.
+		}
+	};
+	
+	private static final Converter INTEGER = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return Integer.parseInt(s);
+		}
+	};
+	
+	private static final Converter LONG = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return Long.parseLong(s);
+		}
+	};
+	
+	private static final Converter DATE = new TrimConverter() {
+		@Override
+		Object parse(String s) throws ParseException {
+			if (s.length() >= timeStampLen) {	// if (x < timeStampLen) 改用 datePattern 转换，更智能
+				// Timestamp format must be yyyy-mm-dd hh:mm:ss[.fffffffff]
+				// return new java.util.Date(java.sql.Timestamp.valueOf(s).getTime());	// error under jdk 64bit(maybe)
+				return new java.util.Date(parseTime(s, true));
+			}
+			else {
+				// return new java.util.Date(java.sql.Date.valueOf(s).getTime());	// error under jdk 64bit
+				return new java.util.Date(parseTime(s, false));
+			}
+		}
+	};
+	
+	private static final Converter SQL_DATE = new TrimConverter() {
+		@Override
+		Object parse(String s) throws ParseException {
+			if (s.length() >= timeStampLen) {	// if (x < timeStampLen) 改用 datePattern 转换，更智能
+				// return new java.sql.Date(java.sql.Timestamp.valueOf(s).getTime());	// error under jdk 64bit(maybe)
+				return new java.sql.Date(parseTime(s, true));
+			}
+			else {
+				// return new java.sql.Date(java.sql.Date.valueOf(s).getTime());	// error under jdk 64bit
+				return new java.sql.Date(parseTime(s, false));
+			}
+		}
+	};
+	
+	private static final Converter TIME = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return java.sql.Time.valueOf(s);
+		}
+	};
+	
+	private static final Converter TIMESTAMP = new TrimConverter() {
+		@Override
+		Object parse(String s) throws ParseException {
+			if (s.length() >= timeStampLen) {
+				return java.sql.Timestamp.valueOf(s);
+			}
+			else {
+				return new java.sql.Timestamp(parseTime(s, false));
+			}
+		}
+	};
+	
+	private static final Converter DOUBLE = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return Double.parseDouble(s);
+		}
+	};
+	
+	private static final Converter FLOAT = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return Float.parseFloat(s);
+		}
+	};
+	
+	private static final Converter BOOLEAN = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			String value = s.toLowerCase();
+			if ("1".equals(value) || "true".equals(value)) {
+				return Boolean.TRUE;
+			}
+			else if ("0".equals(value) || "false".equals(value)) {
+				return Boolean.FALSE;
+			}
+			else {
+				throw new RuntimeException("Can not parse to boolean type of value: " + s);
+			}
+		}
+	};
+	
+	private static final Converter BIG_DECIMAL = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return new java.math.BigDecimal(s);
+		}
+	};
+	
+	private static final Converter BIG_INTEGER = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return new java.math.BigInteger(s);
+		}
+	};
+	
+	private static final Converter BYTES = new TrimConverter() {
+		@Override
+		Object parse(String s) {
+			return s.getBytes();
+		}
+	};
+	
+	/**
+	 * 按yyyy-MM-dd HH:mm:ss(withTime)或者yyyy-MM-dd解析成毫秒数
+	 * 
+	 * 位数固定的输入直接由Calendar计算，和SimpleDateFormat一样是lenient的(2017-02-30 => 2017-03-02)，
+	 * 也一样忽略格式之后的非数字内容(2017-01-02 03:04:05.0)；
+	 * 其他输入(2017-1-2, 位数不够等)交给SimpleDateFormat，结果和异常都和之前一致
+	 */
+	static long parseTime(String s, boolean withTime) throws ParseException {
+		int len = withTime ? timeStampLen : dateLen;
+		if (isFixedLayout(s, len)) {
+			Calendar c = calendar.get();
+			c.clear();
+			c.set(digits(s, 0, 4), digits(s, 5, 2) - 1, digits(s, 8, 2));
+			if (withTime) {
+				c.set(Calendar.HOUR_OF_DAY, digits(s, 11, 2));
+				c.set(Calendar.MINUTE, digits(s, 14, 2));
+				c.set(Calendar.SECOND, digits(s, 17, 2));
+			}
+			return c.getTimeInMillis();
+		}
+		return new SimpleDateFormat(withTime ? timeStampPattern : datePattern).parse(s).getTime();
+	}
+	
+	// yyyy-MM-dd[ HH:mm:ss]，后面紧跟数字时SimpleDateFormat会把它们当成最后一个字段的一部分
+	private static boolean isFixedLayout(String s, int len) {
+		if (s.length() < len || (s.length() > len && isDigit(s.charAt(len)))) return false;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			switch (i) {
+			case 4: case 7:
+				if (c != '-') return false;
+				break;
+			case 10:
+				if (c != ' ') return false;
+				break;
+			case 13: case 16:
+				if (c != ':') return false;
+				break;
+			default:
+				if (!isDigit(c)) return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+	
+	private static int digits(String s, int start, int count) {
+		int n = 0;
+		for (int i = start; i < start + count; i++) n = n * 10 + (s.charAt(i) - '0');
+		return n;
+	}
+	
+	/**
+	 * test for all types of mysql
+	 * 
+	 * 表单提交测试结果:
+	 * 1: 表单中的域,就算不输入任何内容,也会传过来 "", 也即永远不可能为 null.
+	 * 2: 如果输入空格也会提交上来
+	 * 3: 需要考 model中的 string属性,在传过来 "" 时是该转成 null还是不该转换,
+	 *    我想, 因为用户没有输入那么肯定是 null, 而不该是 ""
+	 * 
+	 * 注意: 1:当type参数不为String.class, 且参数s为空串blank的情况,
+	 *       此情况下转换结果为 null, 而不应该抛出异常
+	 *      2:调用者需要对被转换数据做 null 判断，参见 ModelInjector 的两处调用
+	 *      3:本方法不接受null为 s 参数(经测试永远不可能传来null, 因为无输入传来的也是"")
+	 */
+	public static final Object convert(Class<?> type, String s) throws ParseException {
+		return forType(type).convert(s);
+	}
+	
+	/**
+	 * 获取类型的转换器，批量转换时(ModelBinder)每一列只需要获取一次
+	 */
+	static Converter forType(final Class<?> type) {
+		// mysql type: varchar, char, enum, set, text, tinytext, mediumtext, longtext
+		if (type == String.class) {
+			return STRING;
+		}
+		
+		// mysql type: int, integer, tinyint(n) n > 1, smallint, mediumint
+		if (type == Integer.class || type == int.class) {
+			return INTEGER;
+		}
+		
+		// mysql type: bigint
+		if (type == Long.class || type == long.class) {
+			return LONG;
+		}
+		
+		// java.util.Date 类型专为传统 java bean 带有该类型的 setter 方法转换做准备，万不可去掉
+		// 经测试 JDBC 不会返回 java.util.Data 类型。java.sql.Date, java.sql.Time,java.sql.Timestamp 全部直接继承自 java.util.Data, 所以 getDate可以返回这三类数据
+		if (type == java.util.Date.class) {
+			return DATE;
+		}
+		
+		// mysql type: date, year
+		if (type == java.sql.Date.class) {
+			return SQL_DATE;
+		}
+		
+		// mysql type: time
+		if (type == java.sql.Time.class) {
+			return TIME;
+		}
+		
+		// mysql type: timestamp, datetime
+		if (type == java.sql.Timestamp.class) {
+			return TIMESTAMP;
+		}
+		
+		// mysql type: real, double
+		if (type == Double.class || type == double.class) {
+			return DOUBLE;
+		}
+		
+		// mysql type: float
+		if (type == Float.class || type == float.class) {
+			return FLOAT;
+		}
+		
+		// mysql type: bit, tinyint(1)
+		if (type == Boolean.class || type == boolean.class) {
+			return BOOLEAN;
+		}
+		
+		// mysql type: decimal, numeric
+		if (type == java.math.BigDecimal.class) {
+			return BIG_DECIMAL;
+		}
+		
+		// mysql type: unsigned bigint
+		if (type == java.math.BigInteger.class) {
+			return BIG_INTEGER;
+		}
+		
+		// mysql type: binary, varbinary, tinyblob, blob, mediumblob, longblob. I have not finished the test.
+		if (type == byte[].class) {
+			return BYTES;
+		}
+		
+		// 和之前一样，空值不报错，有值时才抛出异常
+		return new TrimConverter() {
+			@Override
+			Object parse(String s) {
+				throw new RuntimeException(type.getName() + " can not be converted, please use other type of attributes in your model!");
+			}
+		};
+	}
+}
@@ -1,186 +1,890 @@
-package org.hacker.core;
-
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-
-import javax.persistence.PersistenceException;
-
-import com.jfinal.plugin.activerecord.Db;
-import com.jfinal.plugin.activerecord.Model;
-import com.jfinal.plugin.activerecord.TableMapping;
-
-public class BaseService {
-  /**
-   * 获取临时态集合的补集
-   * 这个补集是最终要从数据库中删除的集合
-   * 
-   * persistentSet: B1, B2, B3, B4
-   * transientSet: B2, B3, B5, B6
-   * ComplementSet: B1, B4
-   * 
-   * | persistentSet | transientSet | operation                 |
-   * | NULL          | NULL         | NOTHING                   |
-   * | NULL          | SET          | NOTHING                   |
-   * | SET           | NULL         | DELETE ALL persistentSet  |
-   * | SET           | SET          | DELETE ComplementSet      |
-   * 
-   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
-   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
-   * @return
-   */
-  protected <E> Collection<E> getComplementSetByTransient(Collection<E> persistentSet, Collection<E> transientSet) {
-    /**
-     * 如果持久态没有集合,那么就不需要删除任何集合直接返回null,具体如下状态机
-     * 
-     * | persistentSet | transientSet | operation                 |
-     * | NULL          | NULL         | NOTHING                   |
-     * | NULL          | SET          | NOTHING                   |
-     * | SET           | NULL         | DELETE ALL persistentSet  |
-     * | SET           | SET          | DELETE ComplementSet      |
-     */
-    if (persistentSet == null) return null;
-    else if (transientSet == null) return persistentSet;
-    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
-    for (E perModel : persistentSet) {
-      boolean exist = false;
-      for (E traModel : transientSet) {
-        if (perModel.equals(traModel)) {
-          exist = true; break;
-        }
-      }
-      if (!exist) resultCollection.add(perModel);
-    }
-    return resultCollection;
-  }
-  
-  /**
-   * 获取持久态集合的补集
-   * 这个补集是最终要从数据库中添加的集合
-   * 
-   * persistentSet: B1, B2, B3, B4
-   * transientSet: B2, B3, B5, B6
-   * ComplementSet: B5, B6
-   * 
-   * | persistentSet | transientSet | operation                 |
-   * | NULL          | NULL         | NOTHING                   |
-   * | NULL          | SET          | INSERT ALL transientSet   |
-   * | SET           | NULL         | NOTHING                   |
-   * | SET           | SET          | INSERT ComplementSet      |
-   * 
-   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
-   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
-   * @return
-   */
-  protected <E> Collection<E> getComplementSetByPersistent(Collection<E> persistentSet, Collection<E> transientSet) {
-    /**
-     * 如果持久态没有集合,那么就不需要新添任何集合直接返回null,具体如下状态机
-     * 
-     * | persistentSet | transientSet | operation                 |
-     * | NULL          | NULL         | NOTHING                   |
-     * | NULL          | SET          | INSERT ALL transientSet   |
-     * | SET           | NULL         | NOTHING                   |
-     * | SET           | SET          | INSERT ComplementSet      |
-     */
-    if (transientSet == null) return null;
-    else if (persistentSet == null) return transientSet;
-    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
-    for (E traModel : transientSet) {
-      boolean exist = false;
-      for (E perModel : persistentSet) {
-        if (perModel.equals(traModel)) {
-          exist = true; break;
-        }
-      }
-      if (!exist) resultCollection.add(traModel);
-    }
-    return resultCollection;
-  }
-  
-  protected <E extends Model<M>, M extends Model<M>> void batchInsert4OneToMany(List<E> model) {
-    if (model != null && model.size() > 0) {
-      for (int index : Db.batchSave(model, model.size())) 
-        if (index < 0 && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! batch insert fail. index: " + index);
-    }
-  }
-  
-  /**
-   * 给ManyToMany关联的Model作批量添加操作
-   * guideModel需要持久化
-   * modelList可是持久化也可以是瞬态
-   * 
-   * @param guideModel 主导表对应的model(持久化)
-   * @param modelCollection 引导表对应的modelList(持久化)
-   * @param sql 执行的sql语句
-   * @return
-   */
-  protected <E extends Model<M>, M extends Model<M>> void batchInsert4ManyToMany(Model<?> guideModel, List<E> modelCollection, String sql) {
-    if (modelCollection != null && modelCollection.size() > 0) {
-      int modelSize = modelCollection.size();
-      Object[][] paras = new Object[modelSize][];
-      for (int i = 0; i < modelSize; i++) {
-        Model<M> model = modelCollection.get(i);
-        // 默认的主键是id
-        if (model.get("id") == null && !model.save()) throw new PersistenceException("Oop! batch insert fail. modelCollection persistence fail.");
-        paras[i] = new Object[] { guideModel.get("id"), model.get("id") };
-      }
-      for (int index : Db.batch(sql, paras, modelSize)) {
-        if (index < 0 && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! batch insert fail. index: " + index);
-      }
-    }
-  }
-  
-  protected <E extends Model<M>, M extends Model<M>> void batchDelete4OneToMany(List<E> model) {
-    if (model != null && model.size() > 0) {
-      String tableName = TableMapping.me().getTable(model.get(0).getClass()).getName();
-      String[] primaryKeys = TableMapping.me().getTable(model.get(0).getClass()).getPrimaryKey();
-      // 构建delete sql
-      StringBuilder sql = new StringBuilder("delete from `").append(tableName).append("` where ");
-      for (int i = 0; i < primaryKeys.length; i++) {
-        if (i > 0) {
-          sql.append(" and ");
-        }
-        sql.append("`").append(primaryKeys[i]).append("` = ").append("?");
-      }
-      int size = model.size();
-      Object[][] paras = new Object[size][];
-      for (int i = 0; i < size; i++) {
-        Object[] para = new Object[primaryKeys.length];
-        for (int j = 0; j < primaryKeys.length; j++) {
-          para[j] = model.get(i).get(primaryKeys[j]);
-        }
-        paras[i] = para;
-      }
-      int[] result = Db.batch(sql.toString(), paras, size);
-      for (int index : result) 
-        if (index < 0 && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! batch delete fail. index: " + index);
-    }
-  }
-  
-  /**
-   * 给ManyToMany关联的Model作批量删除操作
-   * 
-   * @param guideModel 主导表对应的model
-   * @param modelCollection 引导表对应的modelList
-   * @param sql 执行的sql语句
-   * @return
-   */
-  protected <E extends Model<M>, M extends Model<M>> void batchDelete4ManyToMany(Model<?> guideModel, List<E> modelCollection, String sql) {
-    if (modelCollection != null && modelCollection.size() > 0) {
-      int modelSize = modelCollection.size();
-      Object[][] paras = new Object[modelSize][];
-      for (int i = 0; i < modelSize; i++) {
-        Model<M> model = modelCollection.get(i);
-        if (!model.delete()) throw new PersistenceException("Oop! batch delete fail. model: " + model);
-        // 默认的主键是id
-        paras[i] = new Object[] { guideModel.get("id"), model.get("id") };
-      }
-      int[] result = Db.batch(sql, paras, modelSize);
-      for (int index : result) {
-        // executeBatch返回值参考Java API
-        if (index < 0 && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! batch delete fail. index: " + index);
-      }
-    }
-  }
-}
+package org.hacker.core;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.PersistenceException;
+
+import org.hacker.core.jpa.BatchKit;
+import org.hacker.core.jpa.CacheSync;
+import org.hacker.core.jpa.CascadeDeletePlan;
+import org.hacker.core.jpa.JPAMapping;
+
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.Db;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.IAtom;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Table;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+public class BaseService {
+  // delete from mp_a_b where a_id = ? and b_id = ?
+  private static final Pattern LINK_DELETE = Pattern.compile(
+      "^\\s*delete\\s+from\\s+`?(\\w+)`?\\s+where\\s+`?(\\w+)`?\\s*=\\s*\\?\\s+and\\s+`?(\\w+)`?\\s*=\\s*\\?\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+  // TWO_PHASE模式下等待其他分区写完的最长时间
+  private static final long TWO_PHASE_TIMEOUT_MINUTES = 30;
+  // 所有parallelInsert4OneToMany调用共享的最大线程数
+  public static final int PARALLEL_MAX_THREADS = 32;
+  private static volatile ExecutorService bulkExecutor;
+  
+  /**
+   * 获取临时态集合的补集
+   * 这个补集是最终要从数据库中删除的集合
+   * 
+   * persistentSet: B1, B2, B3, B4
+   * transientSet: B2, B3, B5, B6
+   * ComplementSet: B1, B4
+   * 
+   * | persistentSet | transientSet | operation                 |
+   * | NULL          | NULL         | NOTHING                   |
+   * | NULL          | SET          | NOTHING                   |
+   * | SET           | NULL         | DELETE ALL persistentSet  |
+   * | SET           | SET          | DELETE ComplementSet      |
+   * 
+   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
+   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
+   * @return
+   */
+  protected <E> Collection<E> getComplementSetByTransient(Collection<E> persistentSet, Collection<E> transientSet) {
+    /**
+     * 如果持久态没有集合,那么就不需要删除任何集合直接返回null,具体如下状态机
+     * 
+     * | persistentSet | transientSet | operation                 |
+     * | NULL          | NULL         | NOTHING                   |
+     * | NULL          | SET          | NOTHING                   |
+     * | SET           | NULL         | DELETE ALL persistentSet  |
+     * | SET           | SET          | DELETE ComplementSet      |
+     */
+    if (persistentSet == null) return null;
+    else if (transientSet == null) return persistentSet;
+    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
+    for (E perModel : persistentSet) {
+      boolean exist = false;
+      for (E traModel : transientSet) {
+        if (perModel.equals(traModel)) {
+          exist = true; break;
+        }
+      }
+      if (!exist) resultCollection.add(perModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 使用HashSet获取临时态集合的补集，O(n + m)，结果和getComplementSetByTransient相同
+   * PS: 要求E的hashCode和equals一致，只重写了equals的元素会得到错误的结果，
+   * 这样的元素使用getComplementSetByTransient或者按key比较的重载
+   * 
+   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
+   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
+   * @return
+   * @see #getComplementSetByTransient(Collection, Collection)
+   */
+  protected <E> Collection<E> getComplementSetByTransientHash(Collection<E> persistentSet, Collection<E> transientSet) {
+    if (persistentSet == null) return null;
+    else if (transientSet == null) return persistentSet;
+    Set<E> transientHash = new HashSet<>(transientSet);
+    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
+    for (E perModel : persistentSet) {
+      if (!transientHash.contains(perModel)) resultCollection.add(perModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 按key(比如主键)获取临时态集合的补集，O(n + m)
+   * 适用于没有实现equals/hashCode的元素，比如jfinal的Model
+   * 
+   * @param persistentSet 持久态集合
+   * @param transientSet 临时态集合
+   * @param keyExtractor 取出元素的key，参考byId()
+   * @return
+   * @see #getComplementSetByTransient(Collection, Collection)
+   */
+  protected <E> Collection<E> getComplementSetByTransient(Collection<E> persistentSet, Collection<E> transientSet, KeyExtractor<? super E, ?> keyExtractor) {
+    if (persistentSet == null) return null;
+    else if (transientSet == null) return persistentSet;
+    Set<Object> transientKeys = keySet(transientSet, keyExtractor);
+    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
+    for (E perModel : persistentSet) {
+      Object key = keyExtractor.getKey(perModel);
+      if (key == null || !transientKeys.contains(key)) resultCollection.add(perModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 获取持久态集合的补集
+   * 这个补集是最终要从数据库中添加的集合
+   * 
+   * persistentSet: B1, B2, B3, B4
+   * transientSet: B2, B3, B5, B6
+   * ComplementSet: B5, B6
+   * 
+   * | persistentSet | transientSet | operation                 |
+   * | NULL          | NULL         | NOTHING                   |
+   * | NULL          | SET          | INSERT ALL transientSet   |
+   * | SET           | NULL         | NOTHING                   |
+   * | SET           | SET          | INSERT ComplementSet      |
+   * 
+   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
+   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
+   * @return
+   */
+  protected <E> Collection<E> getComplementSetByPersistent(Collection<E> persistentSet, Collection<E> transientSet) {
+    /**
+     * 如果持久态没有集合,那么就不需要新添任何集合直接返回null,具体如下状态机
+     * 
+     * | persistentSet | transientSet | operation                 |
+     * | NULL          | NULL         | NOTHING                   |
+     * | NULL          | SET          | INSERT ALL transientSet   |
+     * | SET           | NULL         | NOTHING                   |
+     * | SET           | SET          | INSERT ComplementSet      |
+     */
+    if (transientSet == null) return null;
+    else if (persistentSet == null) return transientSet;
+    Collection<E> resultCollection = new ArrayList<>(persistentSet.size());
+    for (E traModel : transientSet) {
+      boolean exist = false;
+      for (E perModel : persistentSet) {
+        if (perModel.equals(traModel)) {
+          exist = true; break;
+        }
+      }
+      if (!exist) resultCollection.add(traModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 使用HashSet获取持久态集合的补集，O(n + m)，结果和getComplementSetByPersistent相同
+   * PS: 要求E的hashCode和equals一致，只重写了equals的元素会得到错误的结果，
+   * 这样的元素使用getComplementSetByPersistent或者按key比较的重载
+   * 
+   * @param persistentSet 持久态集合(使用model从数据库中获取的集合)
+   * @param transientSet 临时态集合(用户新添但还没有持久化的集合)
+   * @return
+   * @see #getComplementSetByPersistent(Collection, Collection)
+   */
+  protected <E> Collection<E> getComplementSetByPersistentHash(Collection<E> persistentSet, Collection<E> transientSet) {
+    if (transientSet == null) return null;
+    else if (persistentSet == null) return transientSet;
+    Set<E> persistentHash = new HashSet<>(persistentSet);
+    Collection<E> resultCollection = new ArrayList<>(transientSet.size());
+    for (E traModel : transientSet) {
+      if (!persistentHash.contains(traModel)) resultCollection.add(traModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 按key(比如主键)获取持久态集合的补集，O(n + m)
+   * key为null的临时态元素(还没有持久化)总是在补集中
+   * 
+   * @param persistentSet 持久态集合
+   * @param transientSet 临时态集合
+   * @param keyExtractor 取出元素的key，参考byId()
+   * @return
+   * @see #getComplementSetByPersistent(Collection, Collection)
+   */
+  protected <E> Collection<E> getComplementSetByPersistent(Collection<E> persistentSet, Collection<E> transientSet, KeyExtractor<? super E, ?> keyExtractor) {
+    if (transientSet == null) return null;
+    else if (persistentSet == null) return transientSet;
+    Set<Object> persistentKeys = keySet(persistentSet, keyExtractor);
+    Collection<E> resultCollection = new ArrayList<>(transientSet.size());
+    for (E traModel : transientSet) {
+      Object key = keyExtractor.getKey(traModel);
+      if (key == null || !persistentKeys.contains(key)) resultCollection.add(traModel);
+    }
+    return resultCollection;
+  }
+  
+  /**
+   * 使用元素本身(equals/hashCode)比较的diff
+   * PS: 和getComplementSetBy*Hash一样要求E的hashCode和equals一致
+   * 
+   * @see #diff(Collection, Collection, KeyExtractor)
+   */
+  protected <E> Diff<Collection<E>> diff(Collection<E> persistentSet, Collection<E> transientSet) {
+    return diff(persistentSet, transientSet, new KeyExtractor<E, E>() {
+      @Override
+      public E getKey(E element) {
+        return element;
+      }
+    });
+  }
+  
+  /**
+   * 一次调用同时得到需要删除和需要添加的集合，每个集合只遍历一次
+   * null视为空集合，结果中的集合不会是null
+   * 
+   * @param persistentSet 持久态集合
+   * @param transientSet 临时态集合
+   * @param keyExtractor 取出元素的key，参考byId()
+   * @return toDelete: 临时态集合的补集，toInsert: 持久态集合的补集
+   */
+  protected <E> Diff<Collection<E>> diff(Collection<E> persistentSet, Collection<E> transientSet, KeyExtractor<? super E, ?> keyExtractor) {
+    int persistentSize = persistentSet == null ? 0 : persistentSet.size();
+    int transientSize = transientSet == null ? 0 : transientSet.size();
+    Map<Object, Boolean> persistentKeys = new HashMap<>(persistentSize * 4 / 3 + 1);
+    if (persistentSet != null) {
+      for (E perModel : persistentSet) {
+        Object key = keyExtractor.getKey(perModel);
+        if (key != null) persistentKeys.put(key, Boolean.FALSE);
+      }
+    }
+    // 标记在临时态中出现过的持久态key，同时收集需要添加的元素
+    Collection<E> toInsert = new ArrayList<>(transientSize);
+    if (transientSet != null) {
+      for (E traModel : transientSet) {
+        Object key = keyExtractor.getKey(traModel);
+        if (key == null || !persistentKeys.containsKey(key)) {
+          toInsert.add(traModel);
+        } else {
+          persistentKeys.put(key, Boolean.TRUE);
+        }
+      }
+    }
+    Collection<E> toDelete = new ArrayList<>();
+    if (persistentSet != null) {
+      for (E perModel : persistentSet) {
+        Object key = keyExtractor.getKey(perModel);
+        if (key == null || !persistentKeys.get(key)) toDelete.add(perModel);
+      }
+    }
+    return new Diff<>(toDelete, toInsert);
+  }
+  
+  /**
+   * 主键(long)的补集，不装箱，持久态中有而临时态中没有的id
+   * 
+   * @see #getComplementSetByTransient(Collection, Collection)
+   */
+  protected long[] getComplementSetByTransient(long[] persistentIds, long[] transientIds) {
+    if (persistentIds == null) return null;
+    else if (transientIds == null) return persistentIds;
+    return complement(persistentIds, longSet(transientIds));
+  }
+  
+  /**
+   * 主键(long)的补集，不装箱，临时态中有而持久态中没有的id
+   * 
+   * @see #getComplementSetByPersistent(Collection, Collection)
+   */
+  protected long[] getComplementSetByPersistent(long[] persistentIds, long[] transientIds) {
+    if (transientIds == null) return null;
+    else if (persistentIds == null) return transientIds;
+    return complement(transientIds, longSet(persistentIds));
+  }
+  
+  /**
+   * 主键(long)的diff，null视为空数组
+   * 
+   * @return toDelete: 持久态中有而临时态中没有的id，toInsert: 临时态中有而持久态中没有的id
+   */
+  protected Diff<long[]> diff(long[] persistentIds, long[] transientIds) {
+    long[] p = persistentIds == null ? new long[0] : persistentIds;
+    long[] t = transientIds == null ? new long[0] : transientIds;
+    return new Diff<>(complement(p, longSet(t)), complement(t, longSet(p)));
+  }
+  
+  /**
+   * 按主键id比较的KeyExtractor，Integer和Long的id视为相等
+   */
+  protected static <E extends Model<?>> KeyExtractor<E, Object> byId() {
+    return byColumn("id");
+  }
+  
+  /**
+   * 按某一列比较的KeyExtractor
+   */
+  protected static <E extends Model<?>> KeyExtractor<E, Object> byColumn(final String column) {
+    return new KeyExtractor<E, Object>() {
+      @Override
+      public Object getKey(E element) {
+        return BatchKit.normalizeId(element.get(column));
+      }
+    };
+  }
+  
+  private static <E> Set<Object> keySet(Collection<E> collection, KeyExtractor<? super E, ?> keyExtractor) {
+    Set<Object> keys = new HashSet<>(collection.size() * 4 / 3 + 1);
+    for (E element : collection) {
+      Object key = keyExtractor.getKey(element);
+      if (key != null) keys.add(key);
+    }
+    return keys;
+  }
+  
+  private static LongHashSet longSet(long[] ids) {
+    LongHashSet set = new LongHashSet(ids.length);
+    for (long id : ids) set.add(id);
+    return set;
+  }
+  
+  // source中不在exclude里的id(保持原有顺序)
+  private static long[] complement(long[] source, LongHashSet exclude) {
+    long[] result = new long[source.length];
+    int n = 0;
+    for (long id : source) {
+      if (!exclude.contains(id)) result[n++] = id;
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+  
+  /**
+   * 给OneToMany关联的Model作批量添加操作，使用默认的分批选项(BatchOptions.defaults())
+   * 
+   * @param model 瞬态的model
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchInsert4OneToMany(List<E> model) {
+    batchInsert4OneToMany(model, BatchOptions.defaults());
+  }
+  
+  /**
+   * 给OneToMany关联的Model作分批添加操作，每批执行一次JDBC batch(或者一条多行insert)
+   * 所有model的属性需要一致
+   * 
+   * @param model 瞬态的model
+   * @param options 分批选项
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchInsert4OneToMany(final List<E> model, final BatchOptions options) {
+    if (model == null || model.size() == 0) return;
+    // 写入model所属的数据源，和runChunks/parallelInsert4OneToMany的事务保持一致
+    final Config config = DbKit.getConfig(model.get(0).getClass());
+    final String tableName = TableMapping.me().getTable(model.get(0).getClass()).getName();
+    final String[] columns = options.isMultiRowInsert() ? model.get(0)._getAttrNames() : null;
+    runChunks(model.get(0), model.size(), options, new Chunk() {
+      @Override
+      public void run(int start, int end) {
+        List<E> chunk = model.subList(start, end);
+        if (columns != null) {
+          List<Object[]> rows = new ArrayList<>(chunk.size());
+          for (E m : chunk) {
+            Object[] row = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) row[i] = m.get(columns[i]);
+            rows.add(row);
+          }
+          BatchKit.insertRows(config, tableName, columns, rows, options.getChunkSize());
+          return;
+        }
+        int[] result;
+        try {
+          result = Db.use(config.getName()).batchSave(chunk, chunk.size());
+        } finally {
+          CacheSync.invalidate(config, tableName);
+        }
+        checkBatchResult(result, "batch insert");
+      }
+    });
+  }
+  
+  /**
+   * 给OneToMany关联的Model作并行批量添加操作，model按顺序切分成若干分区，
+   * 每个分区在共享的线程池中使用独立的连接和事务，分区内部按options分批写入
+   * 
+   * PARTITION_TX: 分区数为parallelism的4倍(方便均衡负载)，每个分区写完立即提交
+   * TWO_PHASE: 分区数等于parallelism，所有分区写完后再一起提交，有一个失败则全部回滚
+   * 
+   * PS: parallelism不要超过连接池的maxActive，TWO_PHASE在等待时会一直占用连接；
+   * 所有调用共享最多PARALLEL_MAX_THREADS个线程，线程不够时TWO_PHASE直接失败(不会等到超时)，
+   * PARTITION_TX使用已经拿到的线程继续写入；
+   * 工作线程不会加入调用者的事务，所以不能在事务中调用；options中的commitEachChunk不起作用，
+   * progress在每个分区提交后由工作线程回调
+   * 
+   * @param model 瞬态的model，所有model的属性需要一致
+   * @param parallelism 最多同时写入的线程(连接)数，不能超过PARALLEL_MAX_THREADS
+   * @param mode 事务模式
+   * @param options 分区内部的分批选项
+   * @return 各分区的结果和吞吐量，失败的分区不会抛出异常，需要检查BulkLoadReport.isSuccess()
+   */
+  protected <E extends Model<M>, M extends Model<M>> BulkLoadReport parallelInsert4OneToMany(List<E> model, int parallelism, final BulkLoadReport.Mode mode, BatchOptions options) {
+    if (parallelism <= 0 || parallelism > PARALLEL_MAX_THREADS)
+      throw new IllegalArgumentException("Oop! parallelism must be between 1 and " + PARALLEL_MAX_THREADS + ".");
+    final int total = model == null ? 0 : model.size();
+    if (total == 0) return new BulkLoadReport(mode, 0, 0, 0, 0, new ArrayList<Throwable>());
+    Config config = DbKit.getConfig(model.get(0).getClass());
+    if (config.isInTransaction()) throw new IllegalStateException("Oop! parallel insert can't join the current transaction.");
+    final String configName = config.getName();
+    
+    int partitions = Math.min(mode == BulkLoadReport.Mode.TWO_PHASE ? parallelism : parallelism * 4, total);
+    final int partitionSize = (total + partitions - 1) / partitions;
+    partitions = (total + partitionSize - 1) / partitionSize;
+    final BatchOptions partitionOptions = BatchOptions.chunk(options.getChunkSize());
+    if (options.isMultiRowInsert()) partitionOptions.multiRowInsert();
+    final ProgressCallback progress = options.getProgressCallback();
+    final AtomicInteger loaded = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+    final CountDownLatch prepared = new CountDownLatch(partitions);
+    final AtomicInteger next = new AtomicInteger();
+    final int partitionCount = partitions;
+    final List<E> models = model;
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    
+    long begin = System.currentTimeMillis();
+    // 每个工作线程依次领取分区，同一次调用最多占用parallelism个线程；TWO_PHASE下每个线程只有一个分区
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        int index;
+        while ((index = next.getAndIncrement()) < partitionCount) {
+          final List<E> partition = models.subList(index * partitionSize, Math.min((index + 1) * partitionSize, total));
+          final AtomicBoolean entered = new AtomicBoolean();
+          try {
+            boolean committed = Db.use(configName).tx(new IAtom() {
+              @Override
+              public boolean run() throws SQLException {
+                entered.set(true);
+                boolean success = false;
+                try {
+                  batchInsert4OneToMany(partition, partitionOptions);
+                  success = true;
+                } finally {
+                  if (!success) failed.set(true);
+                  prepared.countDown();
+                }
+                if (mode == BulkLoadReport.Mode.PARTITION_TX) return true;
+                // 等待其他分区写完，超时或者有分区失败时回滚
+                try {
+                  if (!prepared.await(TWO_PHASE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) failed.set(true);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  failed.set(true);
+                }
+                return !failed.get();
+              }
+            });
+            if (!committed) throw new PersistenceException("Oop! partition rolled back because another partition failed.");
+            int n = loaded.addAndGet(partition.size());
+            if (progress != null) progress.progress(n, total);
+          } catch (RuntimeException | Error e) {
+            // tx()在执行IAtom之前失败(比如连接池耗尽)，否则其他分区要等到超时才会回滚
+            if (!entered.get()) {
+              failed.set(true);
+              prepared.countDown();
+            }
+            failures.add(e);
+          }
+        }
+      }
+    };
+    int workers = Math.min(parallelism, partitions);
+    List<Future<?>> futures = new ArrayList<>(workers);
+    for (int i = 0; i < workers; i++) {
+      try {
+        futures.add(getBulkExecutor().submit(worker));
+      } catch (RejectedExecutionException e) {
+        if (mode == BulkLoadReport.Mode.PARTITION_TX && !futures.isEmpty()) break;
+        // 没有领取的分区不会再执行: TWO_PHASE让已经写完的分区立即回滚，PARTITION_TX一个分区都没有执行
+        failures.add(e);
+        failed.set(true);
+        for (int p = next.getAndSet(partitions); p < partitions; p++) prepared.countDown();
+        break;
+      }
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        failures.add(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failures.add(e);
+        break;
+      }
+    }
+    return new BulkLoadReport(mode, total, loaded.get(), partitions, System.currentTimeMillis() - begin, new ArrayList<>(failures));
+  }
+  
+  private static ExecutorService getBulkExecutor() {
+    if (bulkExecutor == null) {
+      synchronized (BaseService.class) {
+        if (bulkExecutor == null) {
+          final AtomicInteger count = new AtomicInteger();
+          // 不排队: 线程不够时立即拒绝，避免TWO_PHASE的分区在队列中等到超时
+          bulkExecutor = new ThreadPoolExecutor(0, PARALLEL_MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "bulk-insert-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        }
+      }
+    }
+    return bulkExecutor;
+  }
+  
+  /**
+   * 给ManyToMany关联的Model作批量添加操作，使用默认的分批选项(BatchOptions.defaults())
+   * guideModel需要持久化
+   * modelList可是持久化也可以是瞬态
+   * 
+   * @param guideModel 主导表对应的model(持久化)
+   * @param modelCollection 引导表对应的modelList(持久化)
+   * @param sql 执行的sql语句
+   * @return
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchInsert4ManyToMany(Model<?> guideModel, List<E> modelCollection, String sql) {
+    batchInsert4ManyToMany(guideModel, modelCollection, sql, BatchOptions.defaults());
+  }
+  
+  /**
+   * 给ManyToMany关联的Model作分批添加操作
+   * 每批中瞬态的model先使用一次batch insert保存(通过getGeneratedKeys回写主键)，再添加中间表
+   * 使用多行insert时，sql需要是insert into mp_a_b (a_id, b_id) values (?, ?)的形式，否则仍然使用JDBC batch
+   * 
+   * @param guideModel 主导表对应的model(持久化)
+   * @param modelCollection 引导表对应的modelList(持久化或者瞬态)
+   * @param sql 执行的sql语句
+   * @param options 分批选项
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchInsert4ManyToMany(final Model<?> guideModel, final List<E> modelCollection, final String sql, final BatchOptions options) {
+    if (modelCollection == null || modelCollection.size() == 0) return;
+    runChunks(guideModel, modelCollection.size(), options, new Chunk() {
+      @Override
+      public void run(int start, int end) {
+        List<E> chunk = modelCollection.subList(start, end);
+        List<E> transientModels = new ArrayList<>();
+        for (E model : chunk) {
+          // 默认的主键是id
+          if (model.get("id") == null) transientModels.add(model);
+        }
+        try {
+          JPAModel.batchSave(transientModels, options.getChunkSize());
+        } catch (IllegalArgumentException | IllegalAccessException e) {
+          throw new PersistenceException("Oop! batch insert fail. modelCollection persistence fail.", e);
+        }
+        Object[][] paras = new Object[chunk.size()][];
+        for (int i = 0; i < paras.length; i++) {
+          Object id = chunk.get(i).get("id");
+          if (id == null) throw new PersistenceException("Oop! batch insert fail. modelCollection persistence fail.");
+          paras[i] = new Object[] { guideModel.get("id"), id };
+        }
+        insertLinks(DbKit.getConfig(guideModel.getClass()), sql, paras, options);
+      }
+    });
+  }
+  
+  /**
+   * 批量upsert，使用默认的分批选项(BatchOptions.defaults())
+   * 
+   * @see #batchUpsert(List, String[], BatchOptions)
+   */
+  protected <E extends Model<M>, M extends Model<M>> UpsertResult batchUpsert(List<E> models, String... updateColumns) {
+    return batchUpsert(models, updateColumns, BatchOptions.defaults());
+  }
+  
+  /**
+   * 批量upsert(MYSQL insert ... on duplicate key update)，主键或者唯一索引冲突时更新，否则添加
+   * insert的列是model中已经设置并且存在于表中的属性(使用jfinal的Table元数据)，属性不同的model分开执行
+   * JPAModel会像save()一样设置create_date/modify_date
+   * PS: 不会回写自增主键
+   * 
+   * @param models model(持久化或者瞬态)
+   * @param updateColumns 冲突时更新的列，为空时更新除主键和create_date以外的所有列
+   * @param options 分批选项(multiRowInsert不起作用)
+   * @return 每一行的结果
+   */
+  protected <E extends Model<M>, M extends Model<M>> UpsertResult batchUpsert(final List<E> models, final String[] updateColumns, BatchOptions options) {
+    if (models == null || models.size() == 0) return new UpsertResult(new int[0]);
+    Model<?> sample = models.get(0);
+    final Class<?> modelClass = sample.getClass();
+    final Table table = TableMapping.me().getTable(sample.getClass());
+    final Config config = DbKit.getConfig(sample.getClass());
+    final int[] counts = new int[models.size()];
+    runChunks(sample, models.size(), options, new Chunk() {
+      @Override
+      public void run(int start, int end) {
+        // 按(表中存在的)属性分组，每组一条SQL
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = start; i < end; i++) {
+          E model = models.get(i);
+          if (model instanceof JPAModel) ((JPAModel<?>) model).prepareSave(table);
+          List<String> columns = new ArrayList<>();
+          for (String name : model._getAttrNames()) {
+            if (table.hasColumnLabel(name)) columns.add(name);
+          }
+          Collections.sort(columns);
+          List<Integer> indexes = groups.get(columns);
+          if (indexes == null) {
+            indexes = new ArrayList<>();
+            groups.put(columns, indexes);
+          }
+          indexes.add(i);
+        }
+        for (Map.Entry<List<String>, List<Integer>> entry : groups.entrySet()) {
+          String[] columns = entry.getKey().toArray(new String[entry.getKey().size()]);
+          List<Integer> indexes = entry.getValue();
+          List<Object[]> rows = new ArrayList<>(indexes.size());
+          for (int index : indexes) {
+            Model<?> model = models.get(index);
+            Object[] row = new Object[columns.length];
+            for (int j = 0; j < columns.length; j++) row[j] = model.get(columns[j]);
+            rows.add(row);
+          }
+          int[] result = BatchKit.upsertRows(config, table.getName(), columns, getUpdateColumns(table, columns, updateColumns), rows, rows.size());
+          for (int k = 0; k < result.length; k++) counts[indexes.get(k)] = result[k];
+        }
+        // 二级缓存只支持单主键
+        String[] primaryKeys = table.getPrimaryKey();
+        if (primaryKeys.length == 1) {
+          for (int i = start; i < end; i++) CacheSync.evict(config, modelClass, models.get(i).get(primaryKeys[0]));
+        }
+      }
+    });
+    return new UpsertResult(counts);
+  }
+  
+  // 冲突时更新的列，必须在insert的列中
+  private static String[] getUpdateColumns(Table table, String[] columns, String[] updateColumns) {
+    List<String> result = new ArrayList<>(columns.length);
+    if (updateColumns == null || updateColumns.length == 0) {
+      List<String> primaryKeys = Arrays.asList(table.getPrimaryKey());
+      for (String column : columns) {
+        if (!primaryKeys.contains(column) && !"create_date".equals(column)) result.add(column);
+      }
+    } else {
+      List<String> insertColumns = Arrays.asList(columns);
+      for (String column : updateColumns) {
+        if (insertColumns.contains(column)) result.add(column);
+      }
+    }
+    // 没有需要更新的列时相当于insert ignore
+    if (result.isEmpty()) result.add(table.getPrimaryKey()[0]);
+    return result.toArray(new String[result.size()]);
+  }
+  
+  /**
+   * 给OneToMany关联的Model作批量删除操作，使用默认的分批选项(BatchOptions.defaults())
+   * 
+   * @param model 持久化的model
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchDelete4OneToMany(List<E> model) {
+    batchDelete4OneToMany(model, BatchOptions.defaults());
+  }
+  
+  /**
+   * 给OneToMany关联的Model作分批删除操作，每批执行一次JDBC batch
+   * 
+   * @param model 持久化的model
+   * @param options 分批选项(multiRowInsert不起作用)
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchDelete4OneToMany(final List<E> model, BatchOptions options) {
+    if (model == null || model.size() == 0) return;
+    final Class<?> modelClass = model.get(0).getClass();
+    // 写入model所属的数据源，和runChunks的事务保持一致
+    final Config config = DbKit.getConfig(model.get(0).getClass());
+    final String tableName = TableMapping.me().getTable(model.get(0).getClass()).getName();
+    final String[] primaryKeys = TableMapping.me().getTable(model.get(0).getClass()).getPrimaryKey();
+    // 构建delete sql
+    StringBuilder sqlBuilder = new StringBuilder("delete from `").append(tableName).append("` where ");
+    for (int i = 0; i < primaryKeys.length; i++) {
+      if (i > 0) {
+        sqlBuilder.append(" and ");
+      }
+      sqlBuilder.append("`").append(primaryKeys[i]).append("` = ").append("?");
+    }
+    final String sql = sqlBuilder.toString();
+    runChunks(model.get(0), model.size(), options, new Chunk() {
+      @Override
+      public void run(int start, int end) {
+        Object[][] paras = new Object[end - start][];
+        for (int i = start; i < end; i++) {
+          Object[] para = new Object[primaryKeys.length];
+          for (int j = 0; j < primaryKeys.length; j++) {
+            para[j] = model.get(i).get(primaryKeys[j]);
+          }
+          paras[i - start] = para;
+        }
+        int[] result;
+        try {
+          result = Db.use(config.getName()).batch(sql, paras, paras.length);
+        } finally {
+          CacheSync.invalidate(config, tableName);
+          // 二级缓存只支持单主键
+          if (primaryKeys.length == 1) {
+            for (Object[] para : paras) CacheSync.evict(config, modelClass, para[0]);
+          }
+        }
+        checkBatchResult(result, "batch delete");
+      }
+    });
+  }
+  
+  /**
+   * 给ManyToMany关联的Model作批量删除操作，使用默认的分批选项(BatchOptions.defaults())
+   * 
+   * @param guideModel 主导表对应的model
+   * @param modelCollection 引导表对应的modelList
+   * @param sql 执行的sql语句
+   * @return
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchDelete4ManyToMany(Model<?> guideModel, List<E> modelCollection, String sql) {
+    batchDelete4ManyToMany(guideModel, modelCollection, sql, BatchOptions.defaults());
+  }
+  
+  /**
+   * 给ManyToMany关联的Model作分批删除操作，每批:
+   * 1.删除中间表的关系，sql是delete from mp_a_b where a_id = ? and b_id = ?的形式时使用一条
+   * delete ... where a_id = ? and b_id in (...)，否则使用JDBC batch
+   * 2.从对象是JPAModel并且有联级删除时，使用CascadeDeletePlan删除从对象的关联对象
+   * 3.使用一条delete ... where id in (...)删除从对象，删除的行数和model的数量不一致(对象不存在或者重复)时抛出异常
+   * 有联级删除时每批在一个事务中执行
+   * PS: 中间表使用从对象的主键关联，不支持联合主键的从对象
+   * 
+   * @param guideModel 主导表对应的model
+   * @param modelCollection 引导表对应的modelList
+   * @param sql 执行的sql语句
+   * @param options 分批选项(multiRowInsert不起作用)
+   */
+  protected <E extends Model<M>, M extends Model<M>> void batchDelete4ManyToMany(final Model<?> guideModel, final List<E> modelCollection, final String sql, BatchOptions options) {
+    if (modelCollection == null || modelCollection.size() == 0) return;
+    Model<?> sample = modelCollection.get(0);
+    final Table table = TableMapping.me().getTable(sample.getClass());
+    final boolean cascade = sample instanceof JPAModel && JPAMapping.me().getModelMeta(sample.getClass()).hasCascadeDelete();
+    final String configName = DbKit.getConfig(sample.getClass()).getName();
+    runChunks(guideModel, modelCollection.size(), options, new Chunk() {
+      @Override
+      public void run(int start, int end) {
+        final List<E> chunk = modelCollection.subList(start, end);
+        if (!cascade) {
+          deleteManyToMany(guideModel, chunk, sql, table, false);
+          return;
+        }
+        Db.use(configName).tx(new IAtom() {
+          @Override
+          public boolean run() throws SQLException {
+            deleteManyToMany(guideModel, chunk, sql, table, true);
+            return true;
+          }
+        });
+      }
+    });
+  }
+  
+  private void deleteManyToMany(Model<?> guideModel, List<? extends Model<?>> chunk, String sql, Table table, boolean cascade) {
+    Model<?> sample = chunk.get(0);
+    Class<?> modelClass = sample.getClass();
+    Config config = DbKit.getConfig(sample.getClass());
+    // 中间表使用从对象的主键关联，只支持单主键
+    String[] primaryKeys = table.getPrimaryKey();
+    if (primaryKeys.length != 1)
+      throw new PersistenceException("Oop! batch delete ManyToMany doesn't support composite primary key: " + table.getName());
+    String primaryKey = primaryKeys[0];
+    List<Object> ids = new ArrayList<>(chunk.size());
+    for (Model<?> model : chunk) {
+      Object id = model.get(primaryKey);
+      if (id == null) throw new PersistenceException("Oop! batch delete fail. model: " + model);
+      ids.add(id);
+    }
+    // 1.中间表
+    Matcher matcher = LINK_DELETE.matcher(sql);
+    if (matcher.matches()) {
+      BatchKit.deleteIn(config, matcher.group(1), matcher.group(2), guideModel.get("id"), matcher.group(3), ids, ids.size());
+    } else {
+      Object[][] paras = new Object[ids.size()][];
+      for (int i = 0; i < paras.length; i++) paras[i] = new Object[] { guideModel.get("id"), ids.get(i) };
+      int[] result;
+      try {
+        result = Db.use(config.getName()).batch(sql, paras, paras.length);
+      } finally {
+        CacheSync.invalidateSql(config, sql);
+      }
+      checkBatchResult(result, "batch delete");
+    }
+    // 2.从对象的联级删除(不包括从对象本身)
+    if (cascade) CascadeDeletePlan.plan(modelClass, ids, ids.size()).execute();
+    // 3.从对象，和逐个调用delete()一样，有对象不存在时失败
+    int deleted;
+    try {
+      deleted = BatchKit.deleteIn(config, table.getName(), primaryKey, ids, ids.size());
+    } finally {
+      CacheSync.evict(config, modelClass, ids);
+    }
+    if (deleted != ids.size())
+      throw new PersistenceException(String.format("Oop! batch delete fail. models: %d, deleted: %d", ids.size(), deleted));
+  }
+  
+  // 中间表的添加，多行insert或者JDBC batch，中间表和guideModel在同一个数据源中
+  private void insertLinks(Config config, String sql, Object[][] paras, BatchOptions options) {
+    String multiRowSql = options.isMultiRowInsert() ? BatchKit.multiRowSql(sql, paras.length) : null;
+    try {
+      if (multiRowSql != null) {
+        List<Object> flat = new ArrayList<>(paras.length * 2);
+        for (Object[] para : paras) Collections.addAll(flat, para);
+        int index = Db.use(config.getName()).update(multiRowSql, flat.toArray());
+        if (index < paras.length && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! batch insert fail. index: " + index);
+      } else {
+        checkBatchResult(Db.use(config.getName()).batch(sql, paras, paras.length), "batch insert");
+      }
+    } finally {
+      CacheSync.invalidateSql(config, sql);
+    }
+  }
+  
+  /**
+   * 按options分批执行，commitEachChunk时每批在单独的事务中执行
+   * 
+   * @param sample 用于确定数据源的model
+   */
+  private void runChunks(Model<?> sample, int total, BatchOptions options, final Chunk chunk) {
+    int chunkSize = options.getChunkSize();
+    String configName = options.isCommitEachChunk() ? DbKit.getConfig(sample.getClass()).getName() : null;
+    for (int start = 0; start < total; start += chunkSize) {
+      final int chunkStart = start;
+      final int chunkEnd = Math.min(start + chunkSize, total);
+      if (configName != null) {
+        Db.use(configName).tx(new IAtom() {
+          @Override
+          public boolean run() throws SQLException {
+            chunk.run(chunkStart, chunkEnd);
+            return true;
+          }
+        });
+      } else {
+        chunk.run(chunkStart, chunkEnd);
+      }
+      if (options.getProgressCallback() != null) options.getProgressCallback().progress(chunkEnd, total);
+    }
+  }
+  
+  // executeBatch返回值参考Java API
+  private static void checkBatchResult(int[] result, String operation) {
+    for (int index : result) {
+      if (index < 0 && index != Statement.SUCCESS_NO_INFO) throw new PersistenceException("Oop! " + operation + " fail. index: " + index);
+    }
+  }
+  
+  /**
+   * 一批数据的处理，[start, end)
+   */
+  private interface Chunk {
+    void run(int start, int end);
+  }
+}
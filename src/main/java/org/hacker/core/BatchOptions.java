@@ -0,0 +1,77 @@
+package org.hacker.core;
+
+import org.hacker.core.jpa.JPAConfig;
+
+/**
+ * BaseService中batch*方法的分批选项
+ * 
+ * <pre>
+ * batchInsert4OneToMany(list, BatchOptions.chunk(1000).commitEachChunk().multiRowInsert());
+ * </pre>
+ */
+public final class BatchOptions {
+  private final int chunkSize;
+  private boolean commitEachChunk;
+  private boolean multiRowInsert;
+  private ProgressCallback progressCallback;
+  
+  private BatchOptions(int chunkSize) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    this.chunkSize = chunkSize;
+  }
+  
+  /**
+   * 默认选项: 每批jpa.cascade.batchSize条，不单独提交，使用JDBC batch
+   */
+  public static BatchOptions defaults() {
+    return new BatchOptions(JPAConfig.getCascadeBatchSize());
+  }
+  
+  /**
+   * @param chunkSize 每批的数量，同时也是一条多行insert的最大行数
+   */
+  public static BatchOptions chunk(int chunkSize) {
+    return new BatchOptions(chunkSize);
+  }
+  
+  /**
+   * 每批在单独的事务中执行并提交，失败时只回滚当前批，之前的批已经提交
+   * PS: 在外层事务中调用时会加入外层事务，这个选项不起作用
+   */
+  public BatchOptions commitEachChunk() {
+    this.commitEachChunk = true;
+    return this;
+  }
+  
+  /**
+   * 使用多行insert(insert into t (...) values (...), (...))代替JDBC batch
+   * 如果jdbc.url中已经有rewriteBatchedStatements=true，驱动会自己改写batch，这个选项不起作用
+   * PS: 多行insert不会回写自增主键
+   */
+  public BatchOptions multiRowInsert() {
+    this.multiRowInsert = true;
+    return this;
+  }
+  
+  public BatchOptions progress(ProgressCallback progressCallback) {
+    this.progressCallback = progressCallback;
+    return this;
+  }
+  
+  public int getChunkSize() {
+    return chunkSize;
+  }
+  
+  public boolean isCommitEachChunk() {
+    return commitEachChunk;
+  }
+  
+  public boolean isMultiRowInsert() {
+    return multiRowInsert && !JPAConfig.isRewriteBatchedStatements();
+  }
+  
+  public ProgressCallback getProgressCallback() {
+    return progressCallback;
+  }
+  
+}
@@ -0,0 +1,89 @@
+package org.hacker.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 并行批量添加(BaseService.parallelInsert4OneToMany)的结果和吞吐量
+ */
+public final class BulkLoadReport {
+  
+  public enum Mode {
+    /**
+     * 每个分区一个事务，分区之间互不影响，失败的分区回滚，其他分区照常提交
+     */
+    PARTITION_TX,
+    /**
+     * 尽力而为的两阶段提交: 所有分区写完之后再一起提交，有一个分区失败则全部回滚
+     * PS: 提交阶段本身不是原子的，某个连接在提交时出错仍然会导致部分提交
+     */
+    TWO_PHASE
+  }
+  
+  private final Mode mode;
+  private final int total;
+  private final int loaded;
+  private final int partitions;
+  private final long elapsedMillis;
+  private final List<Throwable> failures;
+  
+  BulkLoadReport(Mode mode, int total, int loaded, int partitions, long elapsedMillis, List<Throwable> failures) {
+    this.mode = mode;
+    this.total = total;
+    this.loaded = loaded;
+    this.partitions = partitions;
+    this.elapsedMillis = elapsedMillis;
+    this.failures = Collections.unmodifiableList(failures);
+  }
+  
+  public Mode getMode() {
+    return mode;
+  }
+  
+  /**
+   * 传入的model数量
+   */
+  public int getTotal() {
+    return total;
+  }
+  
+  /**
+   * 已经提交的model数量
+   */
+  public int getLoaded() {
+    return loaded;
+  }
+  
+  public int getPartitions() {
+    return partitions;
+  }
+  
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+  
+  /**
+   * 吞吐量(行/秒)，按已经提交的数量计算
+   */
+  public double getRowsPerSecond() {
+    return elapsedMillis == 0 ? loaded * 1000d : loaded * 1000d / elapsedMillis;
+  }
+  
+  /**
+   * 失败分区的异常
+   */
+  public List<Throwable> getFailures() {
+    return failures;
+  }
+  
+  public boolean isSuccess() {
+    return failures.isEmpty();
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("mode: %s, loaded: %d/%d, partitions: %d, failures: %d, elapsed: %dms, throughput: %.1f rows/s", 
+        mode, loaded, total, partitions, failures.size(), elapsedMillis, getRowsPerSecond());
+  }
+  
+}
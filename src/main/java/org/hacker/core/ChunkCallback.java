@@ -0,0 +1,17 @@
+package org.hacker.core;
+
+import java.util.List;
+
+/**
+ * 分批处理的回调，用于流式读取(JSON请求体，Excel导入等)时每凑满一批就交给调用者，
+ * 比如直接调用BaseService的batchInsert4OneToMany
+ */
+public interface ChunkCallback<T> {
+  
+  /**
+   * @param chunk 当前批，回调返回之后不会再被使用
+   * @throws Exception 抛出的异常会中止处理
+   */
+  void call(List<T> chunk) throws Exception;
+  
+}
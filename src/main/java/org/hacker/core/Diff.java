@@ -0,0 +1,27 @@
+package org.hacker.core;
+
+/**
+ * 持久态集合和临时态集合的差异
+ * toDelete: 持久态中有而临时态中没有，需要从数据库中删除
+ * toInsert: 临时态中有而持久态中没有，需要添加到数据库
+ * 
+ * @param <T> 集合的类型(Collection或者long[])
+ */
+public final class Diff<T> {
+  private final T toDelete;
+  private final T toInsert;
+  
+  public Diff(T toDelete, T toInsert) {
+    this.toDelete = toDelete;
+    this.toInsert = toInsert;
+  }
+  
+  public T getToDelete() {
+    return toDelete;
+  }
+  
+  public T getToInsert() {
+    return toInsert;
+  }
+  
+}
@@ -0,0 +1,14 @@
+package org.hacker.core;
+
+/**
+ * 从元素中取出用于比较的key(比如主键)，key需要正确实现equals和hashCode
+ */
+public interface KeyExtractor<E, K> {
+  
+  /**
+   * @param element 元素
+   * @return 返回null表示元素没有key(比如还没有持久化的model)，这样的元素不和任何元素相等
+   */
+  K getKey(E element);
+  
+}
@@ -0,0 +1,75 @@
+package org.hacker.core;
+
+/**
+ * long的开放寻址(线性探测)哈希集合，避免HashSet&lt;Long&gt;的装箱和Entry对象
+ * 只支持添加和查询，非线程安全
+ */
+final class LongHashSet {
+  // 0作为空槽位，0本身单独记录
+  private long[] keys;
+  private int mask;
+  private int size;
+  private int threshold;
+  private boolean hasZero;
+  
+  LongHashSet(int expectedSize) {
+    int capacity = 16;
+    while (capacity * 3 / 4 < expectedSize) capacity <<= 1;
+    allocate(capacity);
+  }
+  
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    mask = capacity - 1;
+    threshold = capacity * 3 / 4;
+  }
+  
+  /**
+   * @return 集合中原来没有这个值时返回true
+   */
+  boolean add(long key) {
+    if (key == 0) {
+      if (hasZero) return false;
+      hasZero = true;
+      return true;
+    }
+    int i = index(key);
+    while (keys[i] != 0) {
+      if (keys[i] == key) return false;
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    if (++size > threshold) rehash();
+    return true;
+  }
+  
+  boolean contains(long key) {
+    if (key == 0) return hasZero;
+    int i = index(key);
+    while (keys[i] != 0) {
+      if (keys[i] == key) return true;
+      i = (i + 1) & mask;
+    }
+    return false;
+  }
+  
+  private int index(long key) {
+    // murmur3的fmix64，让连续的id分散开
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    return (int) key & mask;
+  }
+  
+  private void rehash() {
+    long[] old = keys;
+    allocate(old.length << 1);
+    for (long key : old) {
+      if (key == 0) continue;
+      int i = index(key);
+      while (keys[i] != 0) i = (i + 1) & mask;
+      keys[i] = key;
+    }
+  }
+  
+}
@@ -0,0 +1,212 @@
+package org.hacker.core;
+
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.fastjson.JSONReader;
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.ActiveRecordException;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Table;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+/**
+ * 把表单参数数组绑定成model列表，按(model class, 参数前缀)缓存，用法:
+ * ModelBinder.of(Movie.class, "movie").bind(getParaMap())
+ *
+ * 创建时确定一次构造器(MethodHandle)和每一列的TypeConverter.Converter，
+ * 绑定时每个参数只需要一次map查找，每个单元格不再反射或者比较类型
+ * 也可以通过bindJson()从JSON数组流式绑定
+ */
+final class ModelBinder<T> {
+  private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, ModelBinder<?>>> binders = new ConcurrentHashMap<>();
+
+  private final Class<T> modelClass;
+  private final String modelNameAndDot;
+  private final Table table;
+  private final MethodHandle constructor;
+  // 列名 -> 转换器
+  private final Map<String, TypeConverter.Converter> converters;
+
+  private ModelBinder(Class<T> modelClass, String modelName) {
+    if (!Model.class.isAssignableFrom(modelClass)) {
+      throw new IllegalArgumentException("getModel only support class of Model, using getBean for other class.");
+    }
+    Table table = TableMapping.me().getTable(modelClass.asSubclass(Model.class));
+    if (table == null) {
+      throw new ActiveRecordException("The Table mapping of model: " + modelClass.getName() +
+          " not exists or the ActiveRecordPlugin not start.");
+    }
+    this.modelClass = modelClass;
+    this.modelNameAndDot = StrKit.notBlank(modelName) ? modelName + "." : null;
+    this.table = table;
+    try {
+      Constructor<T> c = modelClass.getDeclaredConstructor();
+      c.setAccessible(true);
+      this.constructor = MethodHandles.lookup().unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalArgumentException("Oop! " + modelClass.getName() + " must have a no-arg constructor.", e);
+    }
+    Map<String, TypeConverter.Converter> converters = new HashMap<>();
+    for (Entry<String, Class<?>> entry : table.getColumnTypeMapEntrySet()) {
+      converters.put(entry.getKey(), TypeConverter.forType(entry.getValue()));
+    }
+    this.converters = converters;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> ModelBinder<T> of(Class<T> modelClass, String modelName) {
+    String key = StrKit.notBlank(modelName) ? modelName : "";
+    ConcurrentHashMap<String, ModelBinder<?>> byName = binders.get(modelClass);
+    if (byName == null) {
+      byName = new ConcurrentHashMap<>();
+      ConcurrentHashMap<String, ModelBinder<?>> old = binders.putIfAbsent(modelClass, byName);
+      if (old != null) byName = old;
+    }
+    ModelBinder<?> binder = byName.get(key);
+    if (binder == null) {
+      binder = new ModelBinder<>(modelClass, modelName);
+      ModelBinder<?> old = byName.putIfAbsent(key, binder);
+      if (old != null) binder = old;
+    }
+    return (ModelBinder<T>) binder;
+  }
+
+  @SuppressWarnings("unchecked")
+  T newInstance() {
+    try {
+      Object model = (Object) constructor.invokeExact();
+      return (T) model;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * 列的转换器，不存在的列抛出ActiveRecordException
+   */
+  TypeConverter.Converter getConverter(String attrName) {
+    TypeConverter.Converter converter = converters.get(attrName);
+    if (converter != null) return converter;
+    // 支持 CaseInsensitiveContainerFactory
+    Class<?> colType = table.getColumnType(attrName);
+    if (colType == null) {
+      throw new ActiveRecordException("The model attribute " + attrName + " is not exists.");
+    }
+    return TypeConverter.forType(colType);
+  }
+
+  Class<T> getModelClass() {
+    return modelClass;
+  }
+
+  /**
+   * 和BaseController.getModels的语义一致:
+   * 第一个匹配的参数数组决定model的数量，空值不会set，没有匹配的参数时返回null
+   */
+  List<T> bind(Map<String, String[]> parasMap) {
+    List<T> list = null;
+    // 对 paraMap进行遍历而不是对table.getColumnTypeMapEntrySet()进行遍历，以便支持 CaseInsensitiveContainerFactory
+    // 以及支持界面的 attrName有误时可以感知并抛出异常避免出错
+    for (Entry<String, String[]> entry : parasMap.entrySet()) {
+      String paraName = entry.getKey();
+      String attrName;
+      if (modelNameAndDot != null) {
+        if (!paraName.startsWith(modelNameAndDot)) continue;
+        attrName = paraName.substring(modelNameAndDot.length());
+      } else {
+        attrName = paraName;
+      }
+
+      TypeConverter.Converter converter = getConverter(attrName);
+      try {
+        String[] paraValueArray = entry.getValue();
+        // deferred load list
+        if (list == null) {
+          list = new ArrayList<>(paraValueArray.length);
+          for (int i = 0; i < paraValueArray.length; i++) list.add(newInstance());
+        }
+        for (int i = 0; i < list.size(); i++) {
+          String val = paraValueArray[i];
+          if (StrKit.isBlank(val)) continue;
+          Object value = converter.convert(val);
+          if (value != null) ((Model<?>) list.get(i)).set(attrName, value);
+        }
+      } catch (Exception e) {
+        throw new RuntimeException("Can not convert parameter: " + paraName, e);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * 流式读取JSON数组([{"name": "a"}, {"name": "b"}])，key是model的属性名，
+   * 每读满chunkSize个model调用一次callback，不需要把整个请求体读进内存
+   *
+   * @return model的数量
+   */
+  int bindJson(Reader reader, int chunkSize, ChunkCallback<T> callback) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    JSONReader json = new JSONReader(reader);
+    int count = 0;
+    List<T> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+    try {
+      json.startArray();
+      while (json.hasNext()) {
+        T model = newInstance();
+        json.startObject();
+        while (json.hasNext()) {
+          String attrName = json.readString();
+          Object value = json.readObject();
+          if (value == null) continue;
+          if (value instanceof Map || value instanceof Collection) {
+            throw new RuntimeException("Can not convert parameter: " + attrName + ", nested object is not supported.");
+          }
+          TypeConverter.Converter converter = getConverter(attrName);
+          String val = value.toString();
+          if (StrKit.isBlank(val)) continue;
+          try {
+            Object v = converter.convert(val);
+            if (v != null) ((Model<?>) model).set(attrName, v);
+          } catch (Exception e) {
+            throw new RuntimeException("Can not convert parameter: " + attrName + " of row " + count, e);
+          }
+        }
+        json.endObject();
+        chunk.add(model);
+        count++;
+        if (chunk.size() == chunkSize) {
+          call(callback, chunk);
+          chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+        }
+      }
+      json.endArray();
+      if (!chunk.isEmpty()) call(callback, chunk);
+    } finally {
+      json.close();
+    }
+    return count;
+  }
+
+  private static <T> void call(ChunkCallback<T> callback, List<T> chunk) {
+    try {
+      callback.call(chunk);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package org.hacker.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.ValidatorFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 进程内共享的JSR303(hibernate-validator)验证器
+ *
+ * ValidatorFactory的创建代价很高，只在第一次使用时创建一次，Validator本身是线程安全的
+ * 可以在启动时调用prewarm()预先构建model class的约束元数据(见WebConfig.afterJFinalStart)
+ */
+public final class ModelValidator {
+  private static final Logger LOG = LoggerFactory.getLogger(ModelValidator.class);
+  // 少于这个数量时在调用线程中验证
+  private static final int PARALLEL_THRESHOLD = 512;
+  private static final ModelValidator me = new ModelValidator();
+
+  private final ValidatorFactory factory;
+  private final Validator validator;
+  private volatile ExecutorService executor;
+
+  private ModelValidator() {
+    factory = Validation.buildDefaultValidatorFactory();
+    validator = factory.getValidator();
+  }
+
+  public static ModelValidator me() {
+    return me;
+  }
+
+  public Validator getValidator() {
+    return validator;
+  }
+
+  /**
+   * 预先构建约束元数据，避免第一个请求承担这部分代价
+   */
+  public void prewarm(Collection<Class<?>> modelClasses) {
+    for (Class<?> modelClass : modelClasses) {
+      validator.getConstraintsForClass(modelClass);
+    }
+    LOG.info("validator prewarmed for {} model classes", modelClasses.size());
+  }
+
+  public <T> Set<ConstraintViolation<T>> validate(T model) {
+    return validator.validate(model);
+  }
+
+  /**
+   * 验证所有model并返回全部的违反项(按行号排序)，不会在第一个违反项时停止
+   * 数量较多时按CPU数量分区并行验证
+   *
+   * @return 没有违反项时返回空列表
+   */
+  public <T> List<Violation> validateAll(Collection<T> models) {
+    if (models == null || models.isEmpty()) return Collections.emptyList();
+    // 分区按下标读取，LinkedHashSet/LinkedList等先复制成ArrayList，否则get(i)是O(n)的
+    final List<T> list = models instanceof List && models instanceof RandomAccess ? (List<T>) models : new ArrayList<T>(models);
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (list.size() < PARALLEL_THRESHOLD || parallelism == 1) return validate(list, 0, list.size());
+
+    int partitionSize = (list.size() + parallelism - 1) / parallelism;
+    List<Future<List<Violation>>> futures = new ArrayList<>(parallelism);
+    for (int start = 0; start < list.size(); start += partitionSize) {
+      final int from = start, to = Math.min(start + partitionSize, list.size());
+      futures.add(getExecutor().submit(new Callable<List<Violation>>() {
+        @Override
+        public List<Violation> call() {
+          return validate(list, from, to);
+        }
+      }));
+    }
+    // 分区本身是按顺序切分的，按顺序合并即按行号排序
+    List<Violation> result = new ArrayList<>();
+    try {
+      for (Future<List<Violation>> future : futures) result.addAll(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Oop! validation interrupted.", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Oop! validation fail.", e.getCause());
+    } finally {
+      for (Future<List<Violation>> future : futures) future.cancel(true);
+    }
+    return result;
+  }
+
+  private <T> List<Violation> validate(List<T> list, int from, int to) {
+    List<Violation> result = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      for (ConstraintViolation<T> c : validator.validate(list.get(i))) {
+        result.add(new Violation(i, c.getPropertyPath().toString(), c.getMessage()));
+      }
+    }
+    return result;
+  }
+
+  private ExecutorService getExecutor() {
+    if (executor == null) {
+      synchronized (this) {
+        if (executor == null) {
+          final AtomicInteger count = new AtomicInteger();
+          executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "model-validator-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * 一个违反项，row是model在集合中的下标(从0开始)
+   */
+  public static final class Violation {
+    private final int row;
+    private final String property;
+    private final String message;
+
+    Violation(int row, String property, String message) {
+      this.row = row;
+      this.property = property;
+      this.message = message;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public String getProperty() {
+      return property;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      return "row " + row + ": " + property + " " + message;
+    }
+  }
+
+}
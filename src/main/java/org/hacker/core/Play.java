@@ -1,22 +1,30 @@
-package org.hacker.core;
-
-import com.jfinal.kit.PropKit;
-
-public class Play {
-  public static final String PLAY = "play.properties";
-	
-  public static final String 
-  CONFIG_JDBC_URL       = "jdbc.url",
-  CONFIG_JDBC_USERNAME  = "jdbc.user",
-  CONFIG_JDBC_PASSWORD  = "jdbc.pass",
-  CONFIG_JDBC_TRANLEVEL = "jdbc.transactionLevel",
-  CONFIG_JFINAL_MODE    = "jfinal.devMode";
-  
-	public static boolean isJFinalDebug() {
-	  return getProperty(CONFIG_JFINAL_MODE).equals("true");
-	}
-	
-	public static String getProperty(String key) {
-		return PropKit.use(PLAY, "UTF-8").get(key);
-	}
-}
+package org.hacker.core;
+
+import com.jfinal.kit.PropKit;
+
+public class Play {
+  public static final String PLAY = "play.properties";
+	
+  public static final String 
+  CONFIG_JDBC_URL       = "jdbc.url",
+  CONFIG_JDBC_USERNAME  = "jdbc.user",
+  CONFIG_JDBC_PASSWORD  = "jdbc.pass",
+  CONFIG_JDBC_TRANLEVEL = "jdbc.transactionLevel",
+  CONFIG_JFINAL_MODE    = "jfinal.devMode",
+  CONFIG_JPA_CASCADE_BATCH      = "jpa.cascade.batch",
+  CONFIG_JPA_CASCADE_BATCH_SIZE = "jpa.cascade.batchSize",
+  CONFIG_JPA_CASCADE_UPDATE_STRATEGY = "jpa.cascade.updateStrategy",
+  CONFIG_JPA_ENTITY_CACHE = "jpa.cache.entity",
+  CONFIG_JPA_QUERY_CACHE = "jpa.cache.query",
+  CONFIG_JPA_QUERY_CACHE_SIZE = "jpa.cache.query.size",
+  CONFIG_JPA_QUERY_CACHE_TTL = "jpa.cache.query.ttl",
+  CONFIG_JPA_QUERY_CACHE_MAX_ROWS = "jpa.cache.query.maxRows";
+  
+	public static boolean isJFinalDebug() {
+	  return getProperty(CONFIG_JFINAL_MODE).equals("true");
+	}
+	
+	public static String getProperty(String key) {
+		return PropKit.use(PLAY, "UTF-8").get(key);
+	}
+}
@@ -0,0 +1,14 @@
+package org.hacker.core;
+
+/**
+ * 分批处理的进度回调，每处理完一批调用一次
+ */
+public interface ProgressCallback {
+  
+  /**
+   * @param done 已经处理的数量
+   * @param total 总数量
+   */
+  void progress(int done, int total);
+  
+}
@@ -0,0 +1,14 @@
+package org.hacker.core;
+
+/**
+ * 逐行处理的回调，用于流式查询/导出等不需要把结果全部放进内存的场景
+ */
+public interface RowCallback<T> {
+  
+  /**
+   * @param row 当前行
+   * @throws Exception 抛出的异常会中止处理
+   */
+  void call(T row) throws Exception;
+  
+}
@@ -0,0 +1,71 @@
+package org.hacker.core;
+
+/**
+ * 批量upsert(insert ... on duplicate key update)每一行的结果，顺序和传入的model一致
+ * 
+ * PS: MYSQL驱动默认使用CLIENT_FOUND_ROWS(useAffectedRows=false)，这时没有变化的行也返回1，
+ * 需要区分UNCHANGED时在jdbc.url中加上useAffectedRows=true；
+ * 使用rewriteBatchedStatements=true时驱动不返回每一行的结果，全部是UNKNOWN
+ */
+public final class UpsertResult {
+  
+  public enum Outcome {
+    INSERTED, UPDATED, UNCHANGED, UNKNOWN
+  }
+  
+  private final int[] counts;
+  
+  UpsertResult(int[] counts) {
+    this.counts = counts;
+  }
+  
+  public int size() {
+    return counts.length;
+  }
+  
+  /**
+   * @param index 传入的model的下标
+   */
+  public Outcome getOutcome(int index) {
+    switch (counts[index]) {
+    case 1:
+      return Outcome.INSERTED;
+    case 2:
+      return Outcome.UPDATED;
+    case 0:
+      return Outcome.UNCHANGED;
+    default:
+      return Outcome.UNKNOWN;
+    }
+  }
+  
+  public int getInserted() {
+    return count(Outcome.INSERTED);
+  }
+  
+  public int getUpdated() {
+    return count(Outcome.UPDATED);
+  }
+  
+  public int getUnchanged() {
+    return count(Outcome.UNCHANGED);
+  }
+  
+  public int getUnknown() {
+    return count(Outcome.UNKNOWN);
+  }
+  
+  private int count(Outcome outcome) {
+    int n = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (getOutcome(i) == outcome) n++;
+    }
+    return n;
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("inserted: %d, updated: %d, unchanged: %d, unknown: %d", getInserted(), getUpdated(), getUnchanged(), getUnknown());
+  }
+  
+}
@@ -0,0 +1,95 @@
+package org.hacker.core;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+import org.hacker.core.jpa.StreamKit;
+import org.hacker.module.common.XlsxWriter;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.render.Render;
+import com.jfinal.render.RenderException;
+
+/**
+ * 把查询结果直接导出成xlsx写入响应，不经过List<Record>和临时文件(对比TempFileRender)
+ *
+ * 使用StreamKit逐行读取，XlsxWriter逐行写入response的输出流，
+ * 不设置Content-Length，由容器使用chunked传输；客户端读得慢时写入会阻塞，读取也随之暂停，
+ * 所以内存占用和首字节时间都和行数无关
+ *
+ * PS: 下载期间会一直占用一个数据库连接；中途出错时不会写入zip的结尾，客户端得到的是损坏的文件而不是被截断的数据
+ */
+public class XlsxRender extends Render {
+  private static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+  private final String fileName;
+  private final String sql;
+  private final Object[] paras;
+  private final String[] argumentNames;
+  private final String[] argumentTypes;
+  private final String[] title;
+  private final Map<String, String> customDateFormat;
+  private Config config;
+  private String sheetName;
+
+  /**
+   * @param fileName 下载的文件名(.xlsx)
+   * @param sql 查询语句
+   * @param paras 查询参数
+   * @param argumentNames 参数名称
+   * @param argumentTypes 参数类型
+   * @param title 标题
+   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+   */
+  public XlsxRender(String fileName, String sql, Object[] paras, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
+    if (StrKit.isBlank(fileName) || StrKit.isBlank(sql)) throw new IllegalArgumentException();
+    this.fileName = fileName;
+    this.sql = sql;
+    this.paras = paras;
+    this.argumentNames = argumentNames;
+    this.argumentTypes = argumentTypes;
+    this.title = title;
+    this.customDateFormat = customDateFormat;
+  }
+
+  /**
+   * 使用指定的数据源，默认使用主数据源
+   */
+  public XlsxRender setConfig(Config config) {
+    this.config = config;
+    return this;
+  }
+
+  public XlsxRender setSheetName(String sheetName) {
+    this.sheetName = sheetName;
+    return this;
+  }
+
+  @Override
+  public void render() {
+    response.setContentType(CONTENT_TYPE);
+    response.setHeader("Content-Disposition", "attachment; filename=" + encodeFileName(fileName));
+    try {
+      XlsxWriter writer = new XlsxWriter(response.getOutputStream());
+      writer.sheet(sheetName, argumentNames, argumentTypes, title, customDateFormat);
+      StreamKit.eachRecord(config != null ? config : DbKit.getConfig(), sql, paras, writer);
+      // 只有全部写完才写入zip的结尾
+      writer.close();
+    } catch (IOException | RuntimeException e) {
+      // 还没有开始输出时可以交给JFinal渲染错误页面
+      if (!response.isCommitted()) response.reset();
+      throw new RenderException(e);
+    }
+  }
+
+  private static String encodeFileName(String fileName) {
+    try {
+      return new String(fileName.getBytes("UTF-8"), "ISO8859-1");
+    } catch (UnsupportedEncodingException e) {
+      return fileName;
+    }
+  }
+}
@@ -1,70 +1,95 @@
-package org.hacker.core.config;
-
-import javax.sql.DataSource;
-
-import org.hacker.core.Play;
-
-import com.jfinal.config.Plugins;
-import com.jfinal.kit.PropKit;
-import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
-import com.jfinal.plugin.druid.DruidPlugin;
-
-public class PluginFactory {
-	public static void startActiveRecordPlugin() {
-    DruidPlugin dp = getDruidPlugin();
-    ActiveRecordPlugin arp = getActiveRecordPlugin(dp.getDataSource());
-    
-    initModel(arp);
-		dp.start();
-		arp.start();
-	}
-
-  public static void startActiveRecordPlugin(Plugins me) {
-    DruidPlugin dp = getDruidPlugin();
-    ActiveRecordPlugin arp = getActiveRecordPlugin(dp.getDataSource());
-    
-    initModel(arp);
-    me.add(dp);
-    me.add(arp);
-  }
-  
-  private static DruidPlugin getDruidPlugin() {
-    return new DruidPlugin(
-        getProperty(Play.CONFIG_JDBC_URL), 
-        getProperty(Play.CONFIG_JDBC_USERNAME), 
-        getProperty(Play.CONFIG_JDBC_PASSWORD).trim());
-  }
-  
-  private static ActiveRecordPlugin getActiveRecordPlugin(DataSource dataSource) {
-    ActiveRecordPlugin arp = new ActiveRecordPlugin(dataSource);
-    if(getPropertyToBoolean(Play.CONFIG_JFINAL_MODE, false)){
-      arp.setShowSql(true);
-    }
-    arp.setTransactionLevel(getPropertyToInteger(Play.CONFIG_JDBC_TRANLEVEL));
-    return arp;
-  }
-  
-  /**
-   * mapping model and mapping sql
-   */
-  private static void initModel(ActiveRecordPlugin arp) {
-    MappingModel.mapping(arp);
-  }
-  
-	/**
-	 * 获取play.properties的配置
-	 * @param key
-	 * @return
-	 */
-	public static String getProperty(String key) {
-		return PropKit.use("play.properties", "UTF-8").get(key);
-	}
-	
-  public static Integer getPropertyToInteger(String key) {
-    return PropKit.use("play.properties", "UTF-8").getInt(key);
-  }
-	 
-	public static Boolean getPropertyToBoolean(String key, Boolean defaultValue) {
-		return PropKit.use("play.properties", "UTF-8").getBoolean(key, defaultValue);
-	}
-}
+package org.hacker.core.config;
+
+import org.hacker.core.Play;
+import org.hacker.core.jpa.JPAConfig;
+import org.hacker.core.jpa.QueryCache;
+import org.hacker.core.jpa.UpdateStrategy;
+import org.hacker.core.plugin.JPAActiveRecordPlugin;
+
+import com.jfinal.config.Plugins;
+import com.jfinal.kit.PropKit;
+import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
+import com.jfinal.plugin.activerecord.IDataSourceProvider;
+import com.jfinal.plugin.druid.DruidPlugin;
+
+public class PluginFactory {
+	public static void startActiveRecordPlugin() {
+    DruidPlugin dp = getDruidPlugin();
+    ActiveRecordPlugin arp = getActiveRecordPlugin(dp);
+    
+    initModel(arp);
+		dp.start();
+		arp.start();
+	}
+
+  public static void startActiveRecordPlugin(Plugins me) {
+    DruidPlugin dp = getDruidPlugin();
+    ActiveRecordPlugin arp = getActiveRecordPlugin(dp);
+    
+    initModel(arp);
+    me.add(dp);
+    me.add(arp);
+  }
+  
+  private static DruidPlugin getDruidPlugin() {
+    return new DruidPlugin(
+        getProperty(Play.CONFIG_JDBC_URL), 
+        getProperty(Play.CONFIG_JDBC_USERNAME), 
+        getProperty(Play.CONFIG_JDBC_PASSWORD).trim());
+  }
+  
+  // DruidPlugin的DataSource在start()之后才会创建，所以传入IDataSourceProvider
+  private static ActiveRecordPlugin getActiveRecordPlugin(IDataSourceProvider dataSourceProvider) {
+    JPAActiveRecordPlugin arp = new JPAActiveRecordPlugin(dataSourceProvider);
+    if(getPropertyToBoolean(Play.CONFIG_JFINAL_MODE, false)){
+      arp.setShowSql(true);
+    }
+    arp.setTransactionLevel(getPropertyToInteger(Play.CONFIG_JDBC_TRANLEVEL));
+    arp.setCascadeBatch(
+        getPropertyToBoolean(Play.CONFIG_JPA_CASCADE_BATCH, false), 
+        getPropertyToInteger(Play.CONFIG_JPA_CASCADE_BATCH_SIZE, JPAConfig.DEFAULT_BATCH_SIZE));
+    arp.setUpdateStrategy(UpdateStrategy.valueOf(
+        getProperty(Play.CONFIG_JPA_CASCADE_UPDATE_STRATEGY, UpdateStrategy.RELINK.name()).trim().toUpperCase()));
+    // 驱动已经改写batch时，BatchOptions.multiRowInsert()不再手动拼多行insert
+    JPAConfig.setRewriteBatchedStatements(getProperty(Play.CONFIG_JDBC_URL).contains("rewriteBatchedStatements=true"));
+    arp.setEntityCache(getPropertyToBoolean(Play.CONFIG_JPA_ENTITY_CACHE, true));
+    arp.setQueryCache(
+        getPropertyToBoolean(Play.CONFIG_JPA_QUERY_CACHE, false), 
+        getPropertyToInteger(Play.CONFIG_JPA_QUERY_CACHE_SIZE, 2000), 
+        getPropertyToInteger(Play.CONFIG_JPA_QUERY_CACHE_TTL, 300), 
+        getPropertyToInteger(Play.CONFIG_JPA_QUERY_CACHE_MAX_ROWS, QueryCache.DEFAULT_MAX_ROWS));
+    return arp;
+  }
+  
+  /**
+   * mapping model and mapping sql
+   */
+  private static void initModel(ActiveRecordPlugin arp) {
+    MappingModel.mapping(arp);
+  }
+  
+	/**
+	 * 获取play.properties的配置
+	 * @param key
+	 * @return
+	 */
+	public static String getProperty(String key) {
+		return PropKit.use("play.properties", "UTF-8").get(key);
+	}
+	
+	public static String getProperty(String key, String defaultValue) {
+		return PropKit.use("play.properties", "UTF-8").get(key, defaultValue);
+	}
+	
+  public static Integer getPropertyToInteger(String key) {
+    return PropKit.use("play.properties", "UTF-8").getInt(key);
+  }
+  
+  public static Integer getPropertyToInteger(String key, Integer defaultValue) {
+    return PropKit.use("play.properties", "UTF-8").getInt(key, defaultValue);
+  }
+	 
+	public static Boolean getPropertyToBoolean(String key, Boolean defaultValue) {
+		return PropKit.use("play.properties", "UTF-8").getBoolean(key, defaultValue);
+	}
+}
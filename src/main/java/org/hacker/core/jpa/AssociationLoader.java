@@ -0,0 +1,159 @@
+package org.hacker.core.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.FetchType;
+
+import org.hacker.exception.PersistenceException;
+
+import com.jfinal.plugin.activerecord.Model;
+
+/**
+ * 批量加载JPAModel的关联对象(OneToOne, OneToMany, ManyToMany)
+ *
+ * 对一页主对象，每个关联字段只执行一次(分批的)查询:
+ * select a.*, b.{master}_id as __jpa_master_id from {slave} a
+ * inner join mp_{master}_{slave} b on a.id = b.{slave}_id where b.{master}_id in (...)
+ * 再根据__jpa_master_id把从对象放回对应主对象的字段中
+ *
+ * fetch = FetchType.EAGER的字段总是加载，LAZY的字段需要使用with("fieldName")指定
+ * 使用查询缓存时，每个关联查询以从对象表和中间表作为失效的标记(见QueryCache)
+ */
+public final class AssociationLoader {
+
+  private AssociationLoader() {}
+
+  /**
+   * @param masters 主对象
+   * @param modelClass 主对象的class
+   * @param with 需要加载的LAZY字段名，可以为null
+   */
+  public static void load(List<? extends Model<?>> masters, Class<?> modelClass, Collection<String> with) {
+    load(masters, modelClass, with, false);
+  }
+
+  /**
+   * @param masters 主对象
+   * @param modelClass 主对象的class
+   * @param with 需要加载的LAZY字段名，可以为null
+   * @param cache 关联查询是否使用QueryCache
+   */
+  public static void load(List<? extends Model<?>> masters, Class<?> modelClass, Collection<String> with, boolean cache) {
+    if (masters == null || masters.isEmpty()) return;
+    ModelMeta meta = JPAMapping.me().getModelMeta(modelClass);
+    if (with != null) {
+      for (String name : with) {
+        CascadeField cascadeField = meta.getField(name);
+        if (cascadeField == null || !cascadeField.isCascadeable())
+          throw new IllegalArgumentException("Oop! " + modelClass.getName() + " has no association field: " + name);
+      }
+    }
+    load(masters, meta, with, cache, new HashSet<CascadeField>());
+  }
+
+  private static void load(List<? extends Model<?>> masters, ModelMeta meta, Collection<String> with, boolean cache, Set<CascadeField> path) {
+    for (CascadeField cascadeField : meta.getCascadeFields()) {
+      boolean eager = cascadeField.getFetchType() == FetchType.EAGER;
+      if (!eager && (with == null || !with.contains(cascadeField.getName()))) continue;
+      // 双向的EAGER关联会形成环，同一条路径上的字段只加载一次
+      if (!path.add(cascadeField)) continue;
+      try {
+        List<Model<?>> slaves = loadField(masters, cascadeField, cache);
+        // 从对象自身的EAGER字段
+        if (!slaves.isEmpty()) load(slaves, JPAMapping.me().getModelMeta(cascadeField.getSlaveClass()), null, cache, path);
+      } finally {
+        path.remove(cascadeField);
+      }
+    }
+  }
+
+  private static List<Model<?>> loadField(List<? extends Model<?>> masters, CascadeField cascadeField, boolean cache) {
+    // 主对象id -> 主对象
+    Map<Object, List<Model<?>>> masterMap = new LinkedHashMap<>();
+    for (Model<?> master : masters) {
+      Object id = master.get("id");
+      if (id == null) continue;
+      Object key = BatchKit.normalizeId(id);
+      List<Model<?>> list = masterMap.get(key);
+      if (list == null) {
+        list = new ArrayList<>(1);
+        masterMap.put(key, list);
+      }
+      list.add(master);
+    }
+    List<Model<?>> allSlaves = new ArrayList<>();
+    if (masterMap.isEmpty()) return allSlaves;
+
+    // 主对象id -> 从对象
+    Map<Object, List<Model<?>>> slaveMap = new HashMap<>();
+    Model<?> dao = newInstance(cascadeField.getSlaveClass());
+    List<Object> ids = new ArrayList<>(masterMap.keySet());
+    int chunkSize = JPAConfig.getCascadeBatchSize();
+    for (int start = 0; start < ids.size(); start += chunkSize) {
+      int end = Math.min(start + chunkSize, ids.size());
+      String sql = BatchKit.appendPlaceholders(new StringBuilder(cascadeField.getFetchSlaveSqlPrefix()), end - start).append(")").toString();
+      Object[] paras = ids.subList(start, end).toArray();
+      // Model<?>.find返回的是List<capture of ?>(上界是原始类型Model)，不能直接赋给List<? extends Model<?>>
+      List<?> rows = cache
+          ? QueryCache.me().<Model<?>>find(dao, sql, paras, cascadeField.getSlaveTableName(), cascadeField.getMappingTableName())
+          : dao.find(sql, paras);
+      for (Object o : rows) {
+        Model<?> row = (Model<?>) o;
+        Object key = BatchKit.normalizeId(row.get(CascadeField.FETCH_MASTER_ID));
+        row.remove(CascadeField.FETCH_MASTER_ID);
+        List<Model<?>> list = slaveMap.get(key);
+        if (list == null) {
+          list = new ArrayList<>();
+          slaveMap.put(key, list);
+        }
+        list.add(row);
+        allSlaves.add(row);
+      }
+    }
+
+    for (Map.Entry<Object, List<Model<?>>> entry : masterMap.entrySet()) {
+      List<Model<?>> slaves = slaveMap.get(entry.getKey());
+      for (Model<?> master : entry.getValue()) {
+        try {
+          cascadeField.getField().set(master, toFieldValue(cascadeField, slaves));
+        } catch (IllegalAccessException e) {
+          throw new PersistenceException(String.format("Oop! fetch association {%s} fail.", cascadeField), e);
+        }
+      }
+    }
+    return allSlaves;
+  }
+
+  private static Object toFieldValue(CascadeField cascadeField, List<Model<?>> slaves) {
+    // OneToOne
+    if (!cascadeField.isCollection()) return slaves == null || slaves.isEmpty() ? null : slaves.get(0);
+    // OneToMany, ManyToMany
+    Class<?> type = cascadeField.getField().getType();
+    Collection<Model<?>> collection;
+    if (type.isAssignableFrom(ArrayList.class)) {
+      collection = new ArrayList<>(slaves == null ? 0 : slaves.size());
+    } else if (type.isAssignableFrom(LinkedHashSet.class)) {
+      collection = new LinkedHashSet<>();
+    } else {
+      throw new PersistenceException(String.format("Oop! unsupported collection type {%s} of association {%s}.", type.getName(), cascadeField));
+    }
+    if (slaves != null) collection.addAll(slaves);
+    return collection;
+  }
+
+  private static Model<?> newInstance(Class<?> modelClass) {
+    try {
+      return (Model<?>) modelClass.newInstance();
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new PersistenceException(String.format("Oop! can't create instance of {%s}.", modelClass.getName()), e);
+    }
+  }
+}
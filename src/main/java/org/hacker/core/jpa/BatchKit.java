@@ -0,0 +1,418 @@
+package org.hacker.core.jpa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hacker.exception.PersistenceException;
+
+import com.jfinal.plugin.activerecord.ActiveRecordException;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.Db;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.ICallback;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Table;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+/**
+ * 批量持久化工具，SQL只支持测试MYSQL5.5
+ * 所有写操作都会使对应表的查询缓存(QueryCache)失效(在事务中时提交之后再失效一次，见CacheSync)
+ */
+public final class BatchKit {
+  // insert into `t` (a, b) values (?, ?)
+  private static final Pattern INSERT_VALUES = Pattern.compile("^(\\s*insert\\s.*?\\bvalues\\s*)(\\([^()]*\\))\\s*;?\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private BatchKit() {}
+
+  /**
+   * 批量保存model，并把数据库生成的主键回写到model中
+   * 属性相同的model使用同一条insert语句，每batchSize条执行一次executeBatch
+   * 和Model.save()一样只保存表中存在的列，主键为null(包括显式set("id", null))时由数据库生成
+   *
+   * @param models 瞬态的model
+   * @param batchSize 每批的大小
+   */
+  public static <T extends Model<?>> void batchSave(List<T> models, int batchSize) {
+    if (models == null || models.isEmpty()) return;
+    if (batchSize <= 0) throw new IllegalArgumentException("Oop! batchSize must be greater than 0.");
+    // 按(class, 列集合)分组，jfinal的batchSave要求所有model的属性一致
+    Map<List<Object>, List<T>> groups = new LinkedHashMap<>();
+    Map<Class<?>, Table> tables = new HashMap<>();
+    for (T model : models) {
+      Table table = tables.get(model.getClass());
+      if (table == null) {
+        table = TableMapping.me().getTable(model.getClass());
+        tables.put(model.getClass(), table);
+      }
+      List<String> columns = new ArrayList<>();
+      for (String attrName : model._getAttrNames()) {
+        // 和Model.save()一样: 忽略不是表中列的属性，值为null的主键由数据库生成并回写
+        if (!table.hasColumnLabel(attrName)) continue;
+        if (model.get(attrName) == null && isPrimaryKey(table, attrName)) continue;
+        columns.add(attrName);
+      }
+      Collections.sort(columns);
+      List<Object> key = new ArrayList<>(columns.size() + 1);
+      key.add(model.getClass());
+      key.addAll(columns);
+      List<T> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(key, group);
+      }
+      group.add(model);
+    }
+    for (Map.Entry<List<Object>, List<T>> entry : groups.entrySet()) {
+      List<Object> key = entry.getKey();
+      String[] columns = key.subList(1, key.size()).toArray(new String[key.size() - 1]);
+      batchSave0(entry.getValue(), columns, batchSize);
+    }
+  }
+
+  private static boolean isPrimaryKey(Table table, String column) {
+    for (String primaryKey : table.getPrimaryKey()) {
+      if (primaryKey.equalsIgnoreCase(column)) return true;
+    }
+    return false;
+  }
+
+  private static <T extends Model<?>> void batchSave0(final List<T> models, final String[] columns, final int batchSize) {
+    final Table table = TableMapping.me().getTable(models.get(0).getClass());
+    final String[] primaryKeys = table.getPrimaryKey();
+    // 只有单主键并且没有手动设置主键时才需要回写自增主键
+    boolean hasPrimaryKey = false;
+    for (String column : columns) {
+      if (column.equalsIgnoreCase(primaryKeys[0])) hasPrimaryKey = true;
+    }
+    final boolean generatedKey = primaryKeys.length == 1 && !hasPrimaryKey;
+    final String sql = buildInsertSql(table.getName(), columns, 1);
+    Config config = DbKit.getConfig(models.get(0).getClass());
+    try {
+      execute(config, new ICallback() {
+        @Override
+        public Object call(Connection conn) throws SQLException {
+          PreparedStatement pst = generatedKey ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql);
+          try {
+            int size = models.size();
+            for (int start = 0; start < size; start += batchSize) {
+              int end = Math.min(start + batchSize, size);
+              for (int i = start; i < end; i++) {
+                Model<?> model = models.get(i);
+                for (int j = 0; j < columns.length; j++) {
+                  setParameter(pst, j + 1, model.get(columns[j]));
+                }
+                pst.addBatch();
+              }
+              checkResult(pst.executeBatch(), "batch insert");
+              if (generatedKey) {
+                fillGeneratedKeys(pst, table, primaryKeys[0], models, start, end);
+              }
+              pst.clearBatch();
+            }
+          } finally {
+            pst.close();
+          }
+          return null;
+        }
+      });
+    } finally {
+      CacheSync.invalidate(config, table.getName());
+    }
+  }
+
+  private static void fillGeneratedKeys(PreparedStatement pst, Table table, String pKey, List<? extends Model<?>> models, int start, int end) throws SQLException {
+    Class<?> colType = table.getColumnType(pKey);
+    ResultSet rs = pst.getGeneratedKeys();
+    try {
+      int i = start;
+      while (i < end && rs.next()) {
+        Model<?> model = models.get(i++);
+        if (colType == Integer.class || colType == int.class) {
+          model.set(pKey, rs.getInt(1));
+        } else if (colType == Long.class || colType == long.class) {
+          model.set(pKey, rs.getLong(1));
+        } else {
+          model.set(pKey, rs.getObject(1));
+        }
+      }
+      if (i != end)
+        throw new PersistenceException(String.format("Oop! batch insert fail. generated keys: %d, rows: %d", i - start, end - start));
+    } finally {
+      rs.close();
+    }
+  }
+
+  /**
+   * 多行insert: insert into `table` (`c1`, `c2`) values (?, ?), (?, ?) ...
+   * 每chunkSize行一条SQL
+   *
+   * @return 添加的总行数
+   */
+  public static int insertRows(String tableName, String[] columns, List<Object[]> rows, int chunkSize) {
+    return insertRows(DbKit.getConfig(), tableName, columns, rows, chunkSize);
+  }
+
+  /**
+   * 在指定的数据源上执行多行insert
+   *
+   * @see #insertRows(String, String[], List, int)
+   */
+  public static int insertRows(Config config, String tableName, String[] columns, List<Object[]> rows, int chunkSize) {
+    if (rows == null || rows.isEmpty()) return 0;
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    int size = rows.size();
+    String fullSql = null;
+    int total = 0;
+    for (int start = 0; start < size; start += chunkSize) {
+      int end = Math.min(start + chunkSize, size);
+      int n = end - start;
+      String sql;
+      if (n == chunkSize) {
+        if (fullSql == null) fullSql = buildInsertSql(tableName, columns, chunkSize);
+        sql = fullSql;
+      } else {
+        sql = buildInsertSql(tableName, columns, n);
+      }
+      Object[] paras = new Object[n * columns.length];
+      int k = 0;
+      for (int i = start; i < end; i++) {
+        Object[] row = rows.get(i);
+        if (row.length != columns.length)
+          throw new IllegalArgumentException("Oop! row size not match columns: " + Arrays.toString(row));
+        for (Object value : row) paras[k++] = value;
+      }
+      int index;
+      try {
+        index = Db.use(config.getName()).update(sql, paras);
+      } finally {
+        CacheSync.invalidate(config, tableName);
+      }
+      if (index < n && index != Statement.SUCCESS_NO_INFO)
+        throw new PersistenceException(String.format("Oop! batch insert into {%s} fail. rows: %d, index: %d", tableName, n, index));
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * 批量upsert: insert into `table` (`c1`, `c2`) values (?, ?) on duplicate key update `c2` = values(`c2`)
+   * 每chunkSize行执行一次executeBatch
+   *
+   * @param updateColumns 主键或唯一索引冲突时更新的列，必须是columns中的列
+   * @return 每一行的结果: 1 添加，2 更新，0 没有变化，Statement.SUCCESS_NO_INFO 驱动没有返回
+   */
+  public static int[] upsertRows(Config config, final String tableName, final String[] columns, final String[] updateColumns, final List<Object[]> rows, final int chunkSize) {
+    if (rows == null || rows.isEmpty()) return new int[0];
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    if (updateColumns.length == 0) throw new IllegalArgumentException("Oop! updateColumns can't be empty.");
+    StringBuilder sql = new StringBuilder(buildInsertSql(tableName, columns, 1)).append(" on duplicate key update ");
+    for (int i = 0; i < updateColumns.length; i++) {
+      if (i > 0) sql.append(", ");
+      sql.append("`").append(updateColumns[i]).append("` = values(`").append(updateColumns[i]).append("`)");
+    }
+    final String upsertSql = sql.toString();
+    try {
+      return (int[]) execute(config, new ICallback() {
+        @Override
+        public Object call(Connection conn) throws SQLException {
+          int[] result = new int[rows.size()];
+          PreparedStatement pst = conn.prepareStatement(upsertSql);
+          try {
+            int size = rows.size();
+            for (int start = 0; start < size; start += chunkSize) {
+              int end = Math.min(start + chunkSize, size);
+              for (int i = start; i < end; i++) {
+                Object[] row = rows.get(i);
+                if (row.length != columns.length)
+                  throw new IllegalArgumentException("Oop! row size not match columns: " + Arrays.toString(row));
+                for (int j = 0; j < row.length; j++) {
+                  setParameter(pst, j + 1, row[j]);
+                }
+                pst.addBatch();
+              }
+              int[] counts = pst.executeBatch();
+              checkResult(counts, "batch upsert");
+              System.arraycopy(counts, 0, result, start, counts.length);
+              pst.clearBatch();
+            }
+          } finally {
+            pst.close();
+          }
+          return result;
+        }
+      });
+    } finally {
+      CacheSync.invalidate(config, tableName);
+    }
+  }
+
+  /**
+   * 分批删除: delete from `table` where `inColumn` in (?, ?, ...)
+   *
+   * @return 删除的总行数
+   */
+  public static int deleteIn(String tableName, String inColumn, Collection<?> values, int chunkSize) {
+    return deleteIn(DbKit.getConfig(), tableName, null, null, inColumn, values, chunkSize);
+  }
+
+  /**
+   * 在指定的数据源上分批删除
+   *
+   * @see #deleteIn(String, String, Collection, int)
+   */
+  public static int deleteIn(Config config, String tableName, String inColumn, Collection<?> values, int chunkSize) {
+    return deleteIn(config, tableName, null, null, inColumn, values, chunkSize);
+  }
+
+  /**
+   * 分批删除: delete from `table` where `column` = ? and `inColumn` in (?, ?, ...)
+   * 用于删除中间表中某个主对象的部分关联关系
+   *
+   * @return 删除的总行数
+   */
+  public static int deleteIn(String tableName, String column, Object value, String inColumn, Collection<?> values, int chunkSize) {
+    return deleteIn(DbKit.getConfig(), tableName, column, value, inColumn, values, chunkSize);
+  }
+
+  /**
+   * 在指定的数据源上分批删除
+   *
+   * @see #deleteIn(String, String, Object, String, Collection, int)
+   */
+  @SuppressWarnings("unchecked")
+  public static int deleteIn(Config config, String tableName, String column, Object value, String inColumn, Collection<?> values, int chunkSize) {
+    if (values == null || values.isEmpty()) return 0;
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    StringBuilder prefix = new StringBuilder("delete from `").append(tableName).append("` where ");
+    if (column != null) prefix.append("`").append(column).append("` = ? and ");
+    prefix.append("`").append(inColumn).append("` in (");
+    int offset = column != null ? 1 : 0;
+    List<Object> list = values instanceof List ? (List<Object>) values : new ArrayList<Object>(values);
+    int size = list.size();
+    String fullSql = null;
+    int total = 0;
+    for (int start = 0; start < size; start += chunkSize) {
+      int end = Math.min(start + chunkSize, size);
+      int n = end - start;
+      String sql;
+      if (n == chunkSize) {
+        if (fullSql == null) fullSql = appendPlaceholders(new StringBuilder(prefix), chunkSize).append(")").toString();
+        sql = fullSql;
+      } else {
+        sql = appendPlaceholders(new StringBuilder(prefix), n).append(")").toString();
+      }
+      Object[] paras = new Object[n + offset];
+      if (column != null) paras[0] = value;
+      for (int i = start; i < end; i++) paras[offset + i - start] = list.get(i);
+      int index;
+      try {
+        index = Db.use(config.getName()).update(sql, paras);
+      } finally {
+        CacheSync.invalidate(config, tableName);
+      }
+      if (index < 0 && index != Statement.SUCCESS_NO_INFO)
+        throw new PersistenceException(String.format("Oop! batch delete from {%s} fail. index: %d", tableName, index));
+      if (index > 0) total += index;
+    }
+    return total;
+  }
+
+  /**
+   * 把单行的insert ... values (?, ?)改写成rows行的多行insert
+   *
+   * @return 不是单行insert时返回null
+   */
+  public static String multiRowSql(String sql, int rows) {
+    Matcher matcher = INSERT_VALUES.matcher(sql);
+    if (!matcher.matches()) return null;
+    String tuple = matcher.group(2);
+    StringBuilder result = new StringBuilder(matcher.group(1).length() + (tuple.length() + 2) * rows).append(matcher.group(1));
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) result.append(", ");
+      result.append(tuple);
+    }
+    return result.toString();
+  }
+
+  static StringBuilder appendPlaceholders(StringBuilder sql, int n) {
+    for (int i = 0; i < n; i++) {
+      if (i > 0) sql.append(", ");
+      sql.append("?");
+    }
+    return sql;
+  }
+
+  /**
+   * 把主键统一成可以做hash比较的值，避免Integer(1)和Long(1)不相等
+   */
+  public static Object normalizeId(Object id) {
+    if (id instanceof Integer || id instanceof Long || id instanceof Short || id instanceof Byte)
+      return ((Number) id).longValue();
+    if (id instanceof java.math.BigInteger && ((java.math.BigInteger) id).bitLength() < 64)
+      return ((java.math.BigInteger) id).longValue();
+    return id;
+  }
+
+  static String buildInsertSql(String tableName, String[] columns, int rows) {
+    StringBuilder sql = new StringBuilder("insert into `").append(tableName).append("` (");
+    StringBuilder values = new StringBuilder("(");
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        sql.append(", ");
+        values.append(", ");
+      }
+      sql.append("`").append(columns[i]).append("`");
+      values.append("?");
+    }
+    values.append(")");
+    sql.append(") values ");
+    for (int i = 0; i < rows; i++) {
+      if (i > 0) sql.append(", ");
+      sql.append(values);
+    }
+    return sql.toString();
+  }
+
+  static void setParameter(PreparedStatement pst, int index, Object value) throws SQLException {
+    // java.util.Date统一转成Timestamp，和jfinal的Dialect.fillStatement保持一致
+    if (value instanceof java.util.Date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time) && !(value instanceof java.sql.Timestamp)) {
+      pst.setTimestamp(index, new java.sql.Timestamp(((java.util.Date) value).getTime()));
+    } else {
+      pst.setObject(index, value);
+    }
+  }
+
+  // executeBatch返回值参考Java API
+  static void checkResult(int[] result, String operation) {
+    for (int index : result) {
+      if (index < 0 && index != Statement.SUCCESS_NO_INFO)
+        throw new PersistenceException("Oop! " + operation + " fail. index: " + index);
+    }
+  }
+
+  /**
+   * Db.execute会把异常包装成ActiveRecordException，这里还原成PersistenceException
+   */
+  static Object execute(Config config, ICallback callback) {
+    try {
+      return Db.use(config.getName()).execute(callback);
+    } catch (ActiveRecordException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof PersistenceException) throw (PersistenceException) cause;
+      throw new PersistenceException("Oop! " + (cause != null ? cause.getMessage() : e.getMessage()), e);
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package org.hacker.core.jpa;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.IDataSourceProvider;
+
+/**
+ * 写操作使缓存失效的入口，保证在事务提交之后缓存才被认为是最新的
+ *
+ * 写操作调用invalidate()/evict()时立即使缓存失效一次；如果当前线程在config的事务中，
+ * 还会把这些表(对象)记录在事务的连接上，等连接commit(或rollback/close)之后再失效一次。
+ * 否则在写入和提交之间，其他线程会读到新的版本号(或已经清除的对象)和提交前的数据并把它们放进缓存，
+ * 这些缓存在提交之后仍然被认为是有效的
+ *
+ * 事务结束的时机通过包装DataSource得到: JPAActiveRecordPlugin使用wrap()之后的DataSource，
+ * 取出的连接在commit/rollback/close时回调，所以Db.tx，Tx拦截器和嵌套事务都不需要额外处理。
+ * 没有经过包装的数据源只能在写入时失效一次(启动后第一次遇到时会打印警告)
+ */
+public final class CacheSync {
+  private static final Logger LOG = LoggerFactory.getLogger(CacheSync.class);
+  private static final Set<String> warned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private CacheSync() {}
+
+  /**
+   * 使读取了这些表的查询缓存失效
+   *
+   * @param config 执行写操作的数据源
+   */
+  public static void invalidate(Config config, String... tables) {
+    QueryCache.me().invalidate(tables);
+    if (!QueryCache.me().isEnabled()) return;
+    Pending pending = pending(config);
+    if (pending == null) return;
+    for (String table : tables) {
+      if (table != null) pending.tables.add(table);
+    }
+  }
+
+  /**
+   * 从insert/replace/update/delete语句中解析出表名并使其失效
+   *
+   * @see QueryCache#invalidateSql(String)
+   */
+  public static void invalidateSql(Config config, String sql) {
+    QueryCache.me().invalidateSql(sql);
+    if (!QueryCache.me().isEnabled()) return;
+    Pending pending = pending(config);
+    if (pending != null) pending.sqls.add(sql);
+  }
+
+  /**
+   * 清除二级缓存(EntityCache)中的对象
+   *
+   * @param config 执行写操作的数据源
+   */
+  public static void evict(Config config, Class<?> modelClass, Object id) {
+    if (id == null) return;
+    evict(config, modelClass, Collections.singletonList(id));
+  }
+
+  /**
+   * @see #evict(Config, Class, Object)
+   */
+  public static void evict(Config config, Class<?> modelClass, Collection<?> ids) {
+    if (ids == null || ids.isEmpty() || EntityCache.me().getRegion(modelClass) == null) return;
+    EntityCache.me().evict(modelClass, ids);
+    Pending pending = pending(config);
+    if (pending == null) return;
+    List<Object> list = pending.evictions.get(modelClass);
+    if (list == null) {
+      list = new ArrayList<>(ids.size());
+      pending.evictions.put(modelClass, list);
+    }
+    list.addAll(ids);
+  }
+
+  /**
+   * @return 当前线程在config的事务中并且连接可以回调时返回事务的待处理记录，否则返回null
+   */
+  private static Pending pending(Config config) {
+    if (config == null || !config.isInTransaction()) return null;
+    Connection conn = config.getThreadLocalConnection();
+    if (conn != null && Proxy.isProxyClass(conn.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(conn);
+      if (handler instanceof SyncConnection) return ((SyncConnection) handler).pending();
+    }
+    if (warned.add(config.getName())) {
+      LOG.warn("datasource of config {} is not wrapped by CacheSync, caches can't be invalidated after commit.", config.getName());
+    }
+    return null;
+  }
+
+  /**
+   * 包装DataSource，取出的连接在事务结束时处理待失效的缓存
+   */
+  public static DataSource wrap(DataSource dataSource) {
+    if (dataSource == null) return null;
+    if (Proxy.isProxyClass(dataSource.getClass()) && Proxy.getInvocationHandler(dataSource) instanceof SyncDataSource) return dataSource;
+    return (DataSource) Proxy.newProxyInstance(CacheSync.class.getClassLoader(), new Class<?>[] { DataSource.class }, new SyncDataSource(dataSource));
+  }
+
+  /**
+   * 包装IDataSourceProvider(比如DruidPlugin)，DataSource在插件启动之后才会创建
+   */
+  public static IDataSourceProvider wrap(final IDataSourceProvider provider) {
+    if (provider == null) return null;
+    return new IDataSourceProvider() {
+      @Override
+      public DataSource getDataSource() {
+        return wrap(provider.getDataSource());
+      }
+    };
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static final class SyncDataSource implements InvocationHandler {
+    private final DataSource target;
+
+    SyncDataSource(DataSource target) {
+      this.target = target;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      Object result = CacheSync.invoke(target, method, args);
+      if ("getConnection".equals(method.getName()) && result instanceof Connection) {
+        return Proxy.newProxyInstance(CacheSync.class.getClassLoader(), new Class<?>[] { Connection.class }, new SyncConnection((Connection) result));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * 一个连接同时只会被一个线程使用，不需要同步
+   */
+  private static final class SyncConnection implements InvocationHandler {
+    private final Connection target;
+    private Pending pending;
+
+    SyncConnection(Connection target) {
+      this.target = target;
+    }
+
+    Pending pending() {
+      if (pending == null) pending = new Pending();
+      return pending;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if ("equals".equals(name) && args != null && args.length == 1) return proxy == args[0];
+      if ("hashCode".equals(name) && args == null) return System.identityHashCode(proxy);
+      try {
+        return CacheSync.invoke(target, method, args);
+      } finally {
+        if (pending != null && endsTransaction(name, args)) {
+          Pending done = pending;
+          pending = null;
+          done.run();
+        }
+      }
+    }
+
+    // rollback(Savepoint)不会结束事务，setAutoCommit(true)会提交当前事务
+    private static boolean endsTransaction(String name, Object[] args) {
+      if ("commit".equals(name) || "close".equals(name)) return true;
+      if ("rollback".equals(name)) return args == null;
+      return "setAutoCommit".equals(name) && Boolean.TRUE.equals(args[0]);
+    }
+  }
+
+  /**
+   * 一个事务中需要在结束后再次失效的缓存
+   */
+  private static final class Pending {
+    final Set<String> tables = new LinkedHashSet<>();
+    final List<String> sqls = new ArrayList<>();
+    final Map<Class<?>, List<Object>> evictions = new LinkedHashMap<>();
+
+    void run() {
+      try {
+        QueryCache.me().invalidate(tables.toArray(new String[tables.size()]));
+        for (String sql : sqls) QueryCache.me().invalidateSql(sql);
+        for (Map.Entry<Class<?>, List<Object>> entry : evictions.entrySet()) EntityCache.me().evict(entry.getKey(), entry.getValue());
+      } catch (RuntimeException e) {
+        // 不能影响commit/rollback本身的结果
+        LOG.error("invalidate cache after transaction fail.", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package org.hacker.core.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.Db;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.Model;
+
+/**
+ * 基于集合的联级删除计划
+ *
+ * 从ModelMeta出发逐层遍历联级删除(CascadeType.REMOVE)的关联关系:
+ * 每一层使用一次(分批的) select {slave}_id from mp_{master}_{slave} where {master}_id in (...)
+ * 收集下一层从对象的id，已经访问过的(class, id)不再展开，避免双向关联时出现环
+ *
+ * 执行时(需要在同一个事务中):
+ * 1.删除收集到的所有映射表关系 delete from mp_{master}_{slave} where {master}_id in (...)
+ * 2.从最深的一层开始删除从对象 delete from {slave} where id in (...)
+ * 3.清除从对象的二级缓存(EntityCache)，事务提交之后会再清除一次(见CacheSync)
+ * 根对象本身不在计划中，由调用者删除
+ * 所有的查询和删除都使用根对象所属的数据源(关联的model和中间表需要在同一个数据源中)
+ */
+public final class CascadeDeletePlan {
+  private static final Logger LOG = LoggerFactory.getLogger(CascadeDeletePlan.class);
+
+  private final Config config;
+  private final int chunkSize;
+  // 每个class已经计划删除的id(用于环检测)
+  private final Map<Class<?>, Set<Object>> visited = new HashMap<>();
+  // 按层记录的从对象删除
+  private final List<List<Node>> levels = new ArrayList<>();
+  // 需要删除的映射表关系
+  private final List<Link> links = new ArrayList<>();
+
+  private CascadeDeletePlan(Config config, int chunkSize) {
+    this.config = config;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * 为modelClass中主键为ids的对象构建联级删除计划(会执行select)
+   */
+  public static CascadeDeletePlan plan(Class<?> modelClass, Collection<?> ids) {
+    return plan(modelClass, ids, JPAConfig.getCascadeBatchSize());
+  }
+
+  public static CascadeDeletePlan plan(Class<?> modelClass, Collection<?> ids, int chunkSize) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop! chunkSize must be greater than 0.");
+    CascadeDeletePlan plan = new CascadeDeletePlan(DbKit.getConfig(modelClass.asSubclass(Model.class)), chunkSize);
+    List<Node> level = new ArrayList<>();
+    List<Object> rootIds = plan.markVisited(modelClass, ids);
+    if (!rootIds.isEmpty()) level.add(new Node(JPAMapping.me().getModelMeta(modelClass), rootIds));
+    while (!level.isEmpty()) {
+      List<Node> next = new ArrayList<>();
+      for (Node node : level) {
+        plan.expand(node, next);
+      }
+      if (!next.isEmpty()) plan.levels.add(next);
+      level = next;
+    }
+    return plan;
+  }
+
+  private void expand(Node node, List<Node> next) {
+    for (CascadeField cascadeField : node.meta.getCascadeFields()) {
+      if (!cascadeField.isCascadeDelete()) continue;
+      links.add(new Link(cascadeField, node.ids));
+      List<Object> slaveIds = markVisited(cascadeField.getSlaveClass(), selectSlaveIds(cascadeField, node.ids));
+      if (slaveIds.isEmpty()) continue;
+      next.add(new Node(JPAMapping.me().getModelMeta(cascadeField.getSlaveClass()), slaveIds));
+    }
+  }
+
+  private List<Object> selectSlaveIds(CascadeField cascadeField, List<Object> masterIds) {
+    List<Object> result = new ArrayList<>();
+    String prefix = "select `" + cascadeField.getSlaveColumn() + "` from `" + cascadeField.getMappingTableName() + "` where `" + cascadeField.getMasterColumn() + "` in (";
+    int size = masterIds.size();
+    for (int start = 0; start < size; start += chunkSize) {
+      int end = Math.min(start + chunkSize, size);
+      String sql = BatchKit.appendPlaceholders(new StringBuilder(prefix), end - start).append(")").toString();
+      List<Object> ids = Db.use(config.getName()).query(sql, masterIds.subList(start, end).toArray());
+      result.addAll(ids);
+    }
+    return result;
+  }
+
+  // 返回之前没有访问过的id
+  private List<Object> markVisited(Class<?> modelClass, Collection<?> ids) {
+    Set<Object> set = visited.get(modelClass);
+    if (set == null) {
+      set = new HashSet<>();
+      visited.put(modelClass, set);
+    }
+    List<Object> result = new ArrayList<>(ids.size());
+    for (Object id : ids) {
+      if (id == null) continue;
+      if (set.add(BatchKit.normalizeId(id))) {
+        result.add(id);
+      } else {
+        LOG.debug("cascade delete skip visited {}#{}", modelClass.getSimpleName(), id);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * 执行删除计划，调用者需要保证在事务中执行
+   *
+   * @return 删除的从对象总数
+   */
+  public int execute() {
+    for (Link link : links) {
+      BatchKit.deleteIn(config, link.cascadeField.getMappingTableName(), link.cascadeField.getMasterColumn(), link.masterIds, chunkSize);
+    }
+    int total = 0;
+    for (int i = levels.size() - 1; i >= 0; i--) {
+      for (Node node : levels.get(i)) {
+        total += BatchKit.deleteIn(config, node.meta.getTableName(), "id", node.ids, chunkSize);
+        CacheSync.evict(config, node.meta.getModelClass(), node.ids);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * 计划删除的(class -> id)，包括根对象
+   */
+  public Map<Class<?>, Set<Object>> getVisited() {
+    return Collections.unmodifiableMap(visited);
+  }
+
+  public boolean isEmpty() {
+    return links.isEmpty() && levels.isEmpty();
+  }
+
+  private static final class Node {
+    final ModelMeta meta;
+    final List<Object> ids;
+
+    Node(ModelMeta meta, List<Object> ids) {
+      this.meta = meta;
+      this.ids = ids;
+    }
+  }
+
+  private static final class Link {
+    final CascadeField cascadeField;
+    final List<Object> masterIds;
+
+    Link(CascadeField cascadeField, List<Object> masterIds) {
+      this.cascadeField = cascadeField;
+      this.masterIds = masterIds;
+    }
+  }
+}
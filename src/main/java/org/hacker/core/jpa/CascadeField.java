@@ -0,0 +1,212 @@
+package org.hacker.core.jpa;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+
+import javax.persistence.CascadeType;
+import javax.persistence.FetchType;
+
+/**
+ * JPAModel中一个关联字段(OneToOne, OneToMany, ManyToOne, ManyToMany)的元数据
+ * 在ActiveRecordPlugin启动时构建一次，之后只读
+ *
+ * 关联关系统一使用中间表 mp_{master}_{slave}(master_id, slave_id) 来表示
+ */
+public final class CascadeField {
+  // 批量加载关联对象时，用来标记从对象属于哪个主对象的列别名
+  public static final String FETCH_MASTER_ID = "__jpa_master_id";
+
+  public static enum Relation {
+    ONE_TO_ONE, ONE_TO_MANY, MANY_TO_ONE, MANY_TO_MANY
+  }
+
+  private final Field field;
+  private final Relation relation;
+  private final boolean collection;
+  private final Class<?> slaveClass;
+  private final String masterTableName;
+  private final String slaveTableName;
+  private final String mappingTableName;
+  private final String masterColumn;
+  private final String slaveColumn;
+  private final CascadeType[] cascadeTypes;
+  private final FetchType fetchType;
+  private final boolean cascadeInsert;
+  private final boolean cascadeUpdate;
+  private final boolean cascadeDelete;
+  // 为null时使用JPAConfig中的全局策略
+  private final UpdateStrategy updateStrategy;
+
+  // 预先拼接好的中间表SQL
+  private final String insertMappingSql;
+  private final String deleteMappingSql;
+  private final String countMappingSql;
+  private final String selectSlaveSql;
+  private final String selectSlaveIdSql;
+  private final String fetchSlaveSqlPrefix;
+
+  CascadeField(Field field, Relation relation, Class<?> slaveClass, String masterTableName, String slaveTableName, CascadeType[] cascadeTypes, FetchType fetchType, UpdateStrategy updateStrategy) {
+    this.field = field;
+    this.relation = relation;
+    this.collection = Collection.class.isAssignableFrom(field.getType());
+    this.slaveClass = slaveClass;
+    this.masterTableName = masterTableName;
+    this.slaveTableName = slaveTableName;
+    this.mappingTableName = "mp_" + masterTableName + "_" + slaveTableName;
+    this.masterColumn = masterTableName + "_id";
+    this.slaveColumn = slaveTableName + "_id";
+    this.cascadeTypes = cascadeTypes == null ? new CascadeType[0] : cascadeTypes.clone();
+    this.fetchType = fetchType;
+    this.cascadeInsert = contains(this.cascadeTypes, CascadeType.PERSIST);
+    this.cascadeUpdate = contains(this.cascadeTypes, CascadeType.MERGE);
+    this.cascadeDelete = contains(this.cascadeTypes, CascadeType.REMOVE);
+    this.updateStrategy = updateStrategy;
+
+    this.insertMappingSql = "insert into " + mappingTableName + " (" + masterColumn + ", " + slaveColumn + ") value (?, ?)";
+    this.deleteMappingSql = "delete from " + mappingTableName + " where " + masterColumn + " = ?";
+    this.countMappingSql = "select count(*) from " + mappingTableName + " where " + masterColumn + " = ?";
+    this.selectSlaveSql = "select a.* from " + slaveTableName + " a left join " + mappingTableName + " b on a.id = b." + slaveColumn + " where b." + masterColumn + " = ?";
+    this.selectSlaveIdSql = "select " + slaveColumn + " from " + mappingTableName + " where " + masterColumn + " = ?";
+    this.fetchSlaveSqlPrefix = "select a.*, b." + masterColumn + " as " + FETCH_MASTER_ID + " from " + slaveTableName + " a inner join " + mappingTableName + " b on a.id = b." + slaveColumn + " where b." + masterColumn + " in (";
+  }
+
+  private static boolean contains(CascadeType[] types, CascadeType type) {
+    for (CascadeType cascadeType : types) {
+      if (cascadeType == CascadeType.ALL || cascadeType == type) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * ManyToOne不支持联级操作
+   */
+  public boolean isCascadeable() {
+    return relation != Relation.MANY_TO_ONE;
+  }
+
+  public Field getField() {
+    return field;
+  }
+
+  public String getName() {
+    return field.getName();
+  }
+
+  public Relation getRelation() {
+    return relation;
+  }
+
+  /**
+   * 字段类型是否是Collection(OneToMany, ManyToMany)
+   */
+  public boolean isCollection() {
+    return collection;
+  }
+
+  public Class<?> getSlaveClass() {
+    return slaveClass;
+  }
+
+  public String getMasterTableName() {
+    return masterTableName;
+  }
+
+  public String getSlaveTableName() {
+    return slaveTableName;
+  }
+
+  public String getMappingTableName() {
+    return mappingTableName;
+  }
+
+  /**
+   * 中间表中指向主对象的列: {master}_id
+   */
+  public String getMasterColumn() {
+    return masterColumn;
+  }
+
+  /**
+   * 中间表中指向从对象的列: {slave}_id
+   */
+  public String getSlaveColumn() {
+    return slaveColumn;
+  }
+
+  public CascadeType[] getCascadeTypes() {
+    return cascadeTypes.clone();
+  }
+
+  public FetchType getFetchType() {
+    return fetchType;
+  }
+
+  public boolean isCascadeInsert() {
+    return isCascadeable() && cascadeInsert;
+  }
+
+  public boolean isCascadeUpdate() {
+    return isCascadeable() && cascadeUpdate;
+  }
+
+  public boolean isCascadeDelete() {
+    return isCascadeable() && cascadeDelete;
+  }
+
+  /**
+   * 联级更新的策略，字段上没有标注CascadeStrategy时使用全局配置
+   */
+  public UpdateStrategy getUpdateStrategy() {
+    return updateStrategy != null ? updateStrategy : JPAConfig.getUpdateStrategy();
+  }
+
+  /**
+   * insert into mp_{master}_{slave} ({master}_id, {slave}_id) value (?, ?)
+   */
+  public String getInsertMappingSql() {
+    return insertMappingSql;
+  }
+
+  /**
+   * delete from mp_{master}_{slave} where {master}_id = ?
+   */
+  public String getDeleteMappingSql() {
+    return deleteMappingSql;
+  }
+
+  /**
+   * select count(*) from mp_{master}_{slave} where {master}_id = ?
+   */
+  public String getCountMappingSql() {
+    return countMappingSql;
+  }
+
+  /**
+   * select a.* from {slave} a left join mp_{master}_{slave} b on a.id = b.{slave}_id where b.{master}_id = ?
+   */
+  public String getSelectSlaveSql() {
+    return selectSlaveSql;
+  }
+
+  /**
+   * select {slave}_id from mp_{master}_{slave} where {master}_id = ?
+   */
+  public String getSelectSlaveIdSql() {
+    return selectSlaveIdSql;
+  }
+
+  /**
+   * select a.*, b.{master}_id as __jpa_master_id from {slave} a inner join mp_{master}_{slave} b on a.id = b.{slave}_id where b.{master}_id in (
+   * 调用者需要补充占位符和右括号
+   */
+  public String getFetchSlaveSqlPrefix() {
+    return fetchSlaveSqlPrefix;
+  }
+
+  @Override
+  public String toString() {
+    return field.getDeclaringClass().getSimpleName() + "." + field.getName() + "(" + relation + " -> " + slaveTableName + ")";
+  }
+}
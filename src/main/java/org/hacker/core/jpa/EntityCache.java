@@ -0,0 +1,237 @@
+package org.hacker.core.jpa;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.Model;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+/**
+ * JPAModel的二级缓存，按(model class, 主键)缓存findById的结果，用法和JPAMapping一致:
+ * EntityCache.me().getRegion(Movie.class)
+ *
+ * 只有@Table(cache = true)并且是单主键的model才会在JPAActiveRecordPlugin启动时登记
+ * 缓存中保存的是属性的快照(不包括关联字段)，每次命中都会创建新的model，调用者修改model不会影响缓存
+ *
+ * 在save/update/delete/deleteById和联级操作(CascadeDeletePlan)中自动清除:
+ * 写入时清除一次，在事务中时提交之后再清除一次(见CacheSync)，
+ * 读取时使用version()/put(id, model, version)，读取期间发生过清除的结果不会留在缓存中
+ * 事务中不会写入缓存
+ */
+public final class EntityCache {
+  private static final Logger LOG = LoggerFactory.getLogger(EntityCache.class);
+  private static final EntityCache me = new EntityCache();
+
+  private final ConcurrentHashMap<Class<?>, Region> regions = new ConcurrentHashMap<>();
+  private volatile CacheManager cacheManager;
+
+  private EntityCache() {}
+
+  public static EntityCache me() {
+    return me;
+  }
+
+  /**
+   * 为model class登记一个缓存区域
+   *
+   * @param modelClass model的class
+   * @param pkType 主键的类型(用于统一String和数字主键)
+   * @param ttl 存活时间(秒)，0表示不过期
+   * @param size 最多缓存的对象数量，超过时按LRU淘汰
+   */
+  public synchronized Region register(Class<?> modelClass, Class<?> pkType, int ttl, int size) {
+    if (size <= 0) throw new IllegalArgumentException("Oop! cacheSize must be greater than 0.");
+    Region region = regions.get(modelClass);
+    if (region != null) return region;
+    CacheConfiguration config = new CacheConfiguration("jpa.entity." + modelClass.getName(), size)
+        .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+        .eternal(ttl <= 0)
+        .timeToLiveSeconds(ttl > 0 ? ttl : 0);
+    Cache cache = new Cache(config);
+    getCacheManager().addCache(cache);
+    region = new Region(modelClass, pkType, cache);
+    regions.put(modelClass, region);
+    LOG.info("entity cache enabled for {}, ttl: {}s, size: {}", modelClass.getName(), ttl, size);
+    return region;
+  }
+
+  /**
+   * @return 没有开启缓存时返回null
+   */
+  public Region getRegion(Class<?> modelClass) {
+    return regions.isEmpty() ? null : regions.get(modelClass);
+  }
+
+  public Collection<Region> getRegions() {
+    return Collections.unmodifiableCollection(regions.values());
+  }
+
+  public void evict(Class<?> modelClass, Object id) {
+    Region region = getRegion(modelClass);
+    if (region != null) region.evict(id);
+  }
+
+  public void evict(Class<?> modelClass, Collection<?> ids) {
+    Region region = getRegion(modelClass);
+    if (region == null) return;
+    for (Object id : ids) region.evict(id);
+  }
+
+  /**
+   * 所有区域的命中统计: class名 -> "hits: 1, misses: 2, ..."
+   */
+  public Map<String, String> getStatistics() {
+    Map<String, String> result = new HashMap<>();
+    for (Region region : regions.values()) {
+      result.put(region.getModelClass().getName(), region.toString());
+    }
+    return result;
+  }
+
+  synchronized CacheManager getCacheManager() {
+    if (cacheManager == null) {
+      Configuration config = new Configuration().name("jpa-cache");
+      config.setUpdateCheck(false);
+      cacheManager = CacheManager.newInstance(config);
+    }
+    return cacheManager;
+  }
+
+  public synchronized void shutdown() {
+    regions.clear();
+    if (cacheManager != null) {
+      cacheManager.shutdown();
+      cacheManager = null;
+    }
+  }
+
+  /**
+   * 一个model class的缓存区域
+   */
+  public static final class Region {
+    private final Class<?> modelClass;
+    private final Class<?> pkType;
+    private final Cache cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // 每次清除都会增加
+    private final AtomicLong version = new AtomicLong();
+
+    Region(Class<?> modelClass, Class<?> pkType, Cache cache) {
+      this.modelClass = modelClass;
+      this.pkType = pkType;
+      this.cache = cache;
+    }
+
+    /**
+     * @return 属性的快照，没有命中时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> get(Object id) {
+      Element element = cache.get(key(id));
+      if (element == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return (Map<String, Object>) element.getObjectValue();
+    }
+
+    /**
+     * 在查询数据库之前调用，用于put(id, model, version)
+     */
+    public long version() {
+      return version.get();
+    }
+
+    /**
+     * @param version 查询数据库之前的version()，查询期间发生过清除时不缓存，
+     * 否则清除之前读到的旧值会在清除之后放进缓存
+     */
+    public void put(Object id, Model<?> model, long version) {
+      if (this.version.get() != version) return;
+      Map<String, Object> attrs = new HashMap<>();
+      for (Map.Entry<String, Object> entry : model._getAttrsEntrySet()) {
+        attrs.put(entry.getKey(), entry.getValue());
+      }
+      Object key = key(id);
+      cache.put(new Element(key, attrs));
+      // 检查和put之间发生的清除
+      if (this.version.get() != version) cache.remove(key);
+    }
+
+    public void evict(Object id) {
+      if (id == null) return;
+      // 先增加version再删除，正在读取的线程不会再放入旧值
+      version.incrementAndGet();
+      if (cache.remove(key(id))) evictions.incrementAndGet();
+    }
+
+    public void clear() {
+      version.incrementAndGet();
+      cache.removeAll();
+    }
+
+    // 请求参数中的主键通常是String，统一成和数据库返回值相同的key
+    private Object key(Object id) {
+      if (id instanceof String && (pkType == Integer.class || pkType == Long.class)) {
+        try {
+          return Long.valueOf(((String) id).trim());
+        } catch (NumberFormatException e) {
+          return id;
+        }
+      }
+      return BatchKit.normalizeId(id);
+    }
+
+    public Class<?> getModelClass() {
+      return modelClass;
+    }
+
+    public long getHits() {
+      return hits.get();
+    }
+
+    public long getMisses() {
+      return misses.get();
+    }
+
+    public long getEvictions() {
+      return evictions.get();
+    }
+
+    public double getHitRatio() {
+      long h = hits.get(), total = h + misses.get();
+      return total == 0 ? 0 : (double) h / total;
+    }
+
+    public int getSize() {
+      return cache.getSize();
+    }
+
+    public void resetStatistics() {
+      hits.set(0);
+      misses.set(0);
+      evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hits: %d, misses: %d, hitRatio: %.2f, evictions: %d, size: %d", getHits(), getMisses(), getHitRatio(), getEvictions(), getSize());
+    }
+  }
+}
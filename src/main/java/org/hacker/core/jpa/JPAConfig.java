@@ -0,0 +1,66 @@
+package org.hacker.core.jpa;
+
+/**
+ * JPAModel联级操作的全局配置，由JPAActiveRecordPlugin在启动前设置
+ */
+public final class JPAConfig {
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  // 是否使用批量方式处理联级添加(batch insert从对象，多行insert中间表)
+  private static volatile boolean cascadeBatch = false;
+  // 批量操作时每批的大小
+  private static volatile int cascadeBatchSize = DEFAULT_BATCH_SIZE;
+  // 联级更新的全局策略，字段可以使用CascadeStrategy单独指定
+  private static volatile UpdateStrategy updateStrategy = UpdateStrategy.RELINK;
+  // 流式查询的fetchSize，MYSQL驱动只有Integer.MIN_VALUE时才逐行读取
+  // 如果jdbc url中使用了useCursorFetch=true，可以设置为正数
+  private static volatile int streamFetchSize = Integer.MIN_VALUE;
+  // jdbc url中是否有rewriteBatchedStatements=true(驱动会把batch改写成多行insert)
+  private static volatile boolean rewriteBatchedStatements = false;
+
+  private JPAConfig() {}
+
+  public static boolean isCascadeBatch() {
+    return cascadeBatch;
+  }
+
+  public static void setCascadeBatch(boolean cascadeBatch) {
+    JPAConfig.cascadeBatch = cascadeBatch;
+  }
+
+  public static int getCascadeBatchSize() {
+    return cascadeBatchSize;
+  }
+
+  public static void setCascadeBatchSize(int cascadeBatchSize) {
+    if (cascadeBatchSize <= 0)
+      throw new IllegalArgumentException("Oop! cascadeBatchSize must be greater than 0.");
+    JPAConfig.cascadeBatchSize = cascadeBatchSize;
+  }
+
+  public static UpdateStrategy getUpdateStrategy() {
+    return updateStrategy;
+  }
+
+  public static void setUpdateStrategy(UpdateStrategy updateStrategy) {
+    if (updateStrategy == null)
+      throw new IllegalArgumentException("Oop! updateStrategy can't be null.");
+    JPAConfig.updateStrategy = updateStrategy;
+  }
+
+  public static int getStreamFetchSize() {
+    return streamFetchSize;
+  }
+
+  public static void setStreamFetchSize(int streamFetchSize) {
+    JPAConfig.streamFetchSize = streamFetchSize;
+  }
+
+  public static boolean isRewriteBatchedStatements() {
+    return rewriteBatchedStatements;
+  }
+
+  public static void setRewriteBatchedStatements(boolean rewriteBatchedStatements) {
+    JPAConfig.rewriteBatchedStatements = rewriteBatchedStatements;
+  }
+}
@@ -0,0 +1,151 @@
+package org.hacker.core.jpa;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+
+import org.hacker.core.JPAModel;
+import org.hacker.core.plugin.CascadeStrategy;
+import org.hacker.exception.PersistenceException;
+
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Table;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+/**
+ * Model class与关联元数据(ModelMeta)的映射，用法和TableMapping一致:
+ * JPAMapping.me().getModelMeta(Movie.class)
+ *
+ * 元数据在JPAActiveRecordPlugin启动时构建，没有登记过的class在第一次使用时构建
+ */
+public class JPAMapping {
+  private static final JPAMapping me = new JPAMapping();
+
+  private final ConcurrentHashMap<Class<?>, ModelMeta> modelMetaMapping = new ConcurrentHashMap<>();
+
+  private JPAMapping() {}
+
+  public static JPAMapping me() {
+    return me;
+  }
+
+  public ModelMeta getModelMeta(Class<?> modelClass) {
+    ModelMeta meta = modelMetaMapping.get(modelClass);
+    if (meta == null) {
+      meta = build(modelClass);
+      ModelMeta old = modelMetaMapping.putIfAbsent(modelClass, meta);
+      if (old != null) meta = old;
+    }
+    return meta;
+  }
+
+  public Collection<ModelMeta> getModelMetas() {
+    return Collections.unmodifiableCollection(modelMetaMapping.values());
+  }
+
+  public void putModelMeta(ModelMeta meta) {
+    modelMetaMapping.put(meta.getModelClass(), meta);
+  }
+
+  public void clear() {
+    modelMetaMapping.clear();
+  }
+
+  /**
+   * 获取该对象(超类)所有包含关联注解的变量，并解析出关联对象的class和表名
+   */
+  public ModelMeta build(Class<?> modelClass) {
+    Table table = TableMapping.me().getTable(getUsefulClass(modelClass));
+    if (table == null)
+      throw new PersistenceException("Oop! the Table mapping of model: " + modelClass.getName() + " not exists or the ActiveRecordPlugin not start.");
+    List<CascadeField> fields = new ArrayList<>();
+    Class<?> clazz = modelClass;
+    while (clazz != null && !clazz.equals(JPAModel.class) && !clazz.equals(Model.class)) {
+      for (Field field : clazz.getDeclaredFields()) {
+        if (Modifier.isTransient(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        CascadeField cascadeField = buildField(field, table.getName());
+        if (cascadeField != null) fields.add(cascadeField);
+      }
+      clazz = clazz.getSuperclass();
+    }
+    return new ModelMeta(modelClass, table.getName(), fields);
+  }
+
+  private CascadeField buildField(Field field, String masterTableName) {
+    CascadeField.Relation relation;
+    javax.persistence.CascadeType[] cascadeTypes;
+    javax.persistence.FetchType fetchType;
+    if (field.isAnnotationPresent(OneToOne.class)) {
+      OneToOne a = field.getAnnotation(OneToOne.class);
+      relation = CascadeField.Relation.ONE_TO_ONE;
+      cascadeTypes = a.cascade();
+      fetchType = a.fetch();
+    } else if (field.isAnnotationPresent(OneToMany.class)) {
+      OneToMany a = field.getAnnotation(OneToMany.class);
+      relation = CascadeField.Relation.ONE_TO_MANY;
+      cascadeTypes = a.cascade();
+      fetchType = a.fetch();
+    } else if (field.isAnnotationPresent(ManyToMany.class)) {
+      ManyToMany a = field.getAnnotation(ManyToMany.class);
+      relation = CascadeField.Relation.MANY_TO_MANY;
+      cascadeTypes = a.cascade();
+      fetchType = a.fetch();
+    } else if (field.isAnnotationPresent(ManyToOne.class)) {
+      ManyToOne a = field.getAnnotation(ManyToOne.class);
+      relation = CascadeField.Relation.MANY_TO_ONE;
+      cascadeTypes = a.cascade();
+      fetchType = a.fetch();
+    } else {
+      return null;
+    }
+    field.setAccessible(true);
+    Class<?> slaveClass = getSlaveClass(field);
+    String slaveTableName = getSlaveTableName(slaveClass);
+    if (slaveTableName == null && relation != CascadeField.Relation.MANY_TO_ONE)
+      throw new PersistenceException(String.format("Oop! can't resolve the cascade table of field {%s.%s}, the slave class must be annotated with @Table.", field.getDeclaringClass().getName(), field.getName()));
+    CascadeStrategy strategy = field.getAnnotation(CascadeStrategy.class);
+    return new CascadeField(field, relation, slaveClass, masterTableName, slaveTableName, cascadeTypes, fetchType, strategy == null ? null : strategy.value());
+  }
+
+  // 获取关联对象的class, Collection取其泛型参数
+  private Class<?> getSlaveClass(Field field) {
+    if (Collection.class.isAssignableFrom(field.getType())) {
+      Type type = field.getGenericType();
+      if (type instanceof ParameterizedType) {
+        Type t0 = ((ParameterizedType) type).getActualTypeArguments()[0];
+        if (t0 instanceof Class) return (Class<?>) t0;
+        if (t0 instanceof ParameterizedType) return (Class<?>) ((ParameterizedType) t0).getRawType();
+      }
+      throw new PersistenceException(String.format("Oop! cascade field {%s.%s} must declare the generic type of collection.", field.getDeclaringClass().getName(), field.getName()));
+    }
+    return field.getType();
+  }
+
+  // 获取关联对象的表名(为了联级动态添加)
+  private String getSlaveTableName(Class<?> slaveClass) {
+    org.hacker.core.plugin.Table annotation = slaveClass.getAnnotation(org.hacker.core.plugin.Table.class);
+    if (annotation != null) return annotation.tableName();
+    Table table = TableMapping.me().getTable(getUsefulClass(slaveClass));
+    return table == null ? null : table.getName();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Class<? extends Model<?>> getUsefulClass(Class<?> modelClass) {
+    // cglib代理的class取其父类
+    Class<?> c = modelClass.getName().indexOf("EnhancerByCGLIB") == -1 ? modelClass : modelClass.getSuperclass();
+    return (Class<? extends Model<?>>) c;
+  }
+}
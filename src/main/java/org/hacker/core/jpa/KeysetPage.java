@@ -0,0 +1,36 @@
+package org.hacker.core.jpa;
+
+import java.util.List;
+
+/**
+ * 键集(seek)分页的结果
+ */
+public class KeysetPage<M> {
+  private final List<M> list;
+  private final Object[] cursor;
+  private final boolean hasNext;
+
+  public KeysetPage(List<M> list, Object[] cursor, boolean hasNext) {
+    this.list = list;
+    this.cursor = cursor;
+    this.hasNext = hasNext;
+  }
+
+  public List<M> getList() {
+    return list;
+  }
+
+  /**
+   * 本页最后一行orderBy列的值，作为下一页fetchAfter的参数；本页为空时返回null(fetchAfter不接受null)
+   */
+  public Object[] getCursor() {
+    return cursor == null ? null : cursor.clone();
+  }
+
+  /**
+   * 是否还有下一页(fetchAfter多查询了一行)
+   */
+  public boolean hasNext() {
+    return hasNext;
+  }
+}
@@ -0,0 +1,92 @@
+package org.hacker.core.jpa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个Model class的关联元数据(不可变)
+ */
+public final class ModelMeta {
+  private final Class<?> modelClass;
+  private final String tableName;
+  private final List<CascadeField> fields;
+  private final List<CascadeField> cascadeFields;
+  private final Map<String, CascadeField> fieldMap;
+  private final boolean cascadeDelete;
+  // 本表和所有中间表，用于查询缓存失效
+  private final String[] tableNames;
+
+  ModelMeta(Class<?> modelClass, String tableName, List<CascadeField> fields) {
+    this.modelClass = modelClass;
+    this.tableName = tableName;
+    List<CascadeField> cascadeFields = new ArrayList<>(fields.size());
+    Map<String, CascadeField> fieldMap = new LinkedHashMap<>();
+    boolean cascadeDelete = false;
+    for (CascadeField field : fields) {
+      if (field.isCascadeable()) cascadeFields.add(field);
+      if (field.isCascadeDelete()) cascadeDelete = true;
+      fieldMap.put(field.getName(), field);
+    }
+    this.cascadeDelete = cascadeDelete;
+    this.tableNames = new String[cascadeFields.size() + 1];
+    this.tableNames[0] = tableName;
+    for (int i = 0; i < cascadeFields.size(); i++) {
+      this.tableNames[i + 1] = cascadeFields.get(i).getMappingTableName();
+    }
+    this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+    this.cascadeFields = Collections.unmodifiableList(cascadeFields);
+    this.fieldMap = Collections.unmodifiableMap(fieldMap);
+  }
+
+  public Class<?> getModelClass() {
+    return modelClass;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  /**
+   * 所有带有OneToOne, OneToMany, ManyToOne, ManyToMany注解的字段
+   */
+  public List<CascadeField> getFields() {
+    return fields;
+  }
+
+  /**
+   * 支持联级操作的字段(OneToOne, OneToMany, ManyToMany)
+   */
+  public List<CascadeField> getCascadeFields() {
+    return cascadeFields;
+  }
+
+  public CascadeField getField(String name) {
+    return fieldMap.get(name);
+  }
+
+  public boolean hasCascadeFields() {
+    return !cascadeFields.isEmpty();
+  }
+
+  /**
+   * 是否有需要联级删除的字段
+   */
+  public boolean hasCascadeDelete() {
+    return cascadeDelete;
+  }
+
+  /**
+   * 本表和所有联级字段的中间表
+   */
+  public String[] getTableNames() {
+    return tableNames.clone();
+  }
+
+  @Override
+  public String toString() {
+    return modelClass.getName() + "(" + tableName + ") " + fields;
+  }
+}
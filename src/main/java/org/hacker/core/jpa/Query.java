@@ -0,0 +1,392 @@
+package org.hacker.core.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hacker.core.RowCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+/**
+ * JPAModel.select()返回的查询对象，代替原来ThreadLocal中的StringBuffer
+ *
+ * <pre>
+ * List&lt;Movie&gt; list = new Movie().set("type", 1).select().orderBy("id").desc().fetch(0, 10);
+ * </pre>
+ *
+ * 每次select()都会创建一个新的Query，不需要也不应该在线程之间共享
+ * 相同形状(表，where列，group by，having，order by)的查询共用同一条SQL文本，参数全部使用?绑定
+ */
+public class Query<M extends Model<M>> {
+  private static final Logger LOG = LoggerFactory.getLogger(Query.class);
+  // 超过这个数量的SQL形状不再缓存，避免动态的order by把缓存撑爆
+  private static final int MAX_CACHED_SHAPES = 1024;
+  private static final ConcurrentHashMap<Shape, String> sqlCache = new ConcurrentHashMap<>();
+  private static final String LIMIT_OFFSET_COUNT = " limit ?, ?";
+  private static final String LIMIT_COUNT = " limit ?";
+
+  private final M dao;
+  private final String tableName;
+  private final String select;
+  private final String[] whereColumns;
+  private final Object[] whereValues;
+  private String groupBy;
+  private String having;
+  private final List<String> orderBy = new ArrayList<>(2);
+  private Set<String> with;
+  private boolean cache;
+
+  /**
+   * @param dao 用来执行find的model
+   * @param tableName 表名
+   * @param select select的列
+   * @param whereColumns 作为where条件(column = ?)的列
+   * @param whereValues where条件的值
+   */
+  public Query(M dao, String tableName, String select, String[] whereColumns, Object[] whereValues) {
+    if (whereColumns.length != whereValues.length)
+      throw new IllegalArgumentException("Oop! whereColumns and whereValues must have the same length.");
+    this.dao = dao;
+    this.tableName = tableName;
+    this.select = select;
+    this.whereColumns = whereColumns;
+    this.whereValues = whereValues;
+  }
+
+  public Query<M> groupBy(String name) {
+    this.groupBy = name;
+    return this;
+  }
+
+  public Query<M> having(String content) {
+    this.having = content;
+    return this;
+  }
+
+  /**
+   * @deprecated 使用having(String)
+   */
+  @Deprecated
+  public Query<M> haveing(String content) {
+    return having(content);
+  }
+
+  /**
+   * 可以多次调用，按调用顺序排序
+   */
+  public Query<M> orderBy(String name) {
+    orderBy.add(name);
+    return this;
+  }
+
+  /**
+   * 作用于最后一个orderBy
+   */
+  public Query<M> asc() {
+    return direction(" asc");
+  }
+
+  /**
+   * 作用于最后一个orderBy
+   */
+  public Query<M> desc() {
+    return direction(" desc");
+  }
+
+  private Query<M> direction(String direction) {
+    if (orderBy.isEmpty()) throw new IllegalStateException("Oop! must use method 'orderBy()' first.");
+    int last = orderBy.size() - 1;
+    orderBy.set(last, orderBy.get(last) + direction);
+    return this;
+  }
+
+  /**
+   * 在fetch时同时加载指定的LAZY关联字段(EAGER字段总是加载)
+   *
+   * @param fields 关联字段名，如: with("posters")
+   */
+  public Query<M> with(String... fields) {
+    if (with == null) with = new HashSet<>();
+    Collections.addAll(with, fields);
+    return this;
+  }
+
+  /**
+   * fetch和fetchAfter的结果使用QueryCache缓存(包括关联查询)，
+   * 没有开启查询缓存(jpa.cache.query = false)时不起作用
+   */
+  public Query<M> cache() {
+    this.cache = true;
+    return this;
+  }
+
+  /**
+   * PS: 保留IllegalAccessException的声明以兼容原有的调用代码
+   */
+  public List<M> fetch(int start, int count) throws IllegalAccessException {
+    String sql = getSql();
+    Object[] paras = Arrays.copyOf(whereValues, whereValues.length + 2);
+    paras[whereValues.length] = start;
+    paras[whereValues.length + 1] = count;
+    LOG.debug("SQL: {}", sql);
+    List<M> result = find(sql, paras);
+    // for JPA FetchType.EAGER 和 with()指定的LAZY关联，每个关联字段每页只查询一次
+    AssociationLoader.load(result, dao.getClass(), with, cache);
+    return result;
+  }
+
+  private List<M> find(String sql, Object[] paras) {
+    return cache ? QueryCache.me().<M>find(dao, sql, paras, tableName) : dao.find(sql, paras);
+  }
+
+  public List<M> fetch(int count) throws IllegalAccessException {
+    return fetch(0, count);
+  }
+
+  /**
+   * 只有主键条件(new Movie().set("id", id).select().first())并且开启了二级缓存时使用findById
+   */
+  public M first() throws IllegalAccessException {
+    if (isCachedPrimaryKeyLookup()) {
+      M model = dao.findById(whereValues[0]);
+      if (model != null) AssociationLoader.load(Collections.singletonList(model), dao.getClass(), with, cache);
+      return model;
+    }
+    List<M> list = fetch(0, 1);
+    return list == null || list.size() == 0 ? null : list.get(0);
+  }
+
+  private boolean isCachedPrimaryKeyLookup() {
+    if (whereColumns.length != 1 || whereValues[0] == null || !"*".equals(select) || groupBy != null || having != null) return false;
+    if (EntityCache.me().getRegion(dao.getClass()) == null) return false;
+    return whereColumns[0].equals(TableMapping.me().getTable(dao.getClass()).getPrimaryKey()[0]);
+  }
+
+  /**
+   * 流式读取所有结果，每一行创建一个新的model
+   * 
+   * @return 读取的行数
+   * @see StreamKit
+   */
+  public int each(RowCallback<M> callback) {
+    return each(false, callback);
+  }
+  
+  /**
+   * 流式读取所有结果(不使用limit)，内存占用和结果的行数无关
+   * 不支持with()加载关联对象
+   * 
+   * @param reuse 是否复用同一个model实例，复用时回调中不能保存model的引用
+   * @return 读取的行数
+   */
+  @SuppressWarnings("unchecked")
+  public int each(boolean reuse, RowCallback<M> callback) {
+    if (with != null) throw new IllegalStateException("Oop! stream query doesn't support with().");
+    String sql = getSql(newShape(null, null));
+    LOG.debug("SQL: {}", sql);
+    return StreamKit.each((Class<M>) dao.getClass(), sql, whereValues, reuse, callback);
+  }
+  
+  /**
+   * 键集(seek)分页，按orderBy的列翻页，第N页和第1页的代价相同:
+   * where ... and (k1 > ? or (k1 = ? and k2 > ?)) order by k1, k2 limit ?
+   * 
+   * <pre>
+   * KeysetPage&lt;Movie&gt; page = new Movie().select().orderBy("create_date").orderBy("id").fetchAfter(20);
+   * page = new Movie().select().orderBy("create_date").orderBy("id").fetchAfter(20, page.getCursor());
+   * </pre>
+   * 
+   * orderBy的列必须是同一个方向(全部asc或者全部desc)，最后一列应该唯一(如id)，并且需要出现在select中
+   * PS: (k1, k2) > (?, ?)这种行比较在MYSQL5.5/5.6下不能使用索引，所以展开成了等价的or条件
+   * 
+   * 每次多查询一行来判断是否还有下一页，hasNext()为false时不需要再翻页
+   * 
+   * @param count 每页的数量
+   * @param lastKeys 上一页返回的cursor，第一页不传；不能是null(空页的cursor)，否则会从第一页重新开始
+   */
+  public KeysetPage<M> fetchAfter(int count, Object... lastKeys) throws IllegalAccessException {
+    if (groupBy != null) throw new IllegalStateException("Oop! keyset pagination doesn't support group by.");
+    if (count <= 0) throw new IllegalArgumentException("Oop! count must be greater than 0.");
+    if (lastKeys == null) throw new IllegalArgumentException("Oop! the cursor is null, there is no next page.");
+    List<String> keys = new ArrayList<>();
+    boolean desc = parseOrderKeys(keys);
+    boolean firstPage = lastKeys.length == 0;
+    if (!firstPage && lastKeys.length != keys.size())
+      throw new IllegalArgumentException("Oop! the cursor must have " + keys.size() + " values: " + keys);
+    
+    String seek = firstPage ? null : seekSql(keys, desc);
+    int n = keys.size();
+    List<Object> paras = new ArrayList<>(whereValues.length + (firstPage ? 0 : n * (n + 1) / 2) + 1);
+    Collections.addAll(paras, whereValues);
+    if (!firstPage) {
+      // k1 > ? or (k1 = ? and k2 > ?) or ...
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j <= i; j++) paras.add(lastKeys[j]);
+      }
+    }
+    paras.add(count + 1);
+    String sql = getSql(newShape(seek, LIMIT_COUNT));
+    LOG.debug("SQL: {}", sql);
+    List<M> result = find(sql, paras.toArray());
+    boolean hasNext = result.size() > count;
+    if (hasNext) result = new ArrayList<>(result.subList(0, count));
+    AssociationLoader.load(result, dao.getClass(), with, cache);
+    
+    Object[] cursor = null;
+    if (!result.isEmpty()) {
+      M last = result.get(result.size() - 1);
+      cursor = new Object[n];
+      for (int i = 0; i < n; i++) cursor[i] = last.get(attrName(keys.get(i)));
+    }
+    return new KeysetPage<M>(result, cursor, hasNext);
+  }
+  
+  // 解析orderBy中的列，返回是否是desc
+  private boolean parseOrderKeys(List<String> keys) {
+    if (orderBy.isEmpty()) throw new IllegalStateException("Oop! keyset pagination must use method 'orderBy()' first.");
+    Boolean desc = null;
+    for (String term : orderBy) {
+      for (String part : term.split(",")) {
+        String key = part.trim();
+        String lower = key.toLowerCase();
+        boolean d = false;
+        if (lower.endsWith(" desc")) {
+          d = true;
+          key = key.substring(0, key.length() - 5).trim();
+        } else if (lower.endsWith(" asc")) {
+          key = key.substring(0, key.length() - 4).trim();
+        }
+        if (desc != null && desc != d)
+          throw new IllegalStateException("Oop! keyset pagination requires all order by columns to use the same direction.");
+        desc = d;
+        keys.add(key);
+      }
+    }
+    return desc;
+  }
+  
+  private static String seekSql(List<String> keys, boolean desc) {
+    String op = desc ? " < ?" : " > ?";
+    StringBuilder sql = new StringBuilder("(");
+    for (int i = 0; i < keys.size(); i++) {
+      if (i > 0) sql.append(" or ");
+      sql.append("(");
+      for (int j = 0; j < i; j++) sql.append(keys.get(j)).append(" = ? and ");
+      sql.append(keys.get(i)).append(op).append(")");
+    }
+    return sql.append(")").toString();
+  }
+  
+  // `a`.`id` -> id
+  private static String attrName(String key) {
+    String name = key.replace("`", "");
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 ? name.substring(dot + 1) : name;
+  }
+
+  /**
+   * fetch执行的SQL(limit ?, ?)
+   */
+  public String getSql() {
+    return getSql(newShape(null, LIMIT_OFFSET_COUNT));
+  }
+  
+  private Shape newShape(String seek, String limit) {
+    return new Shape(tableName, select, whereColumns, seek, groupBy, having, orderBy.toArray(new String[orderBy.size()]), limit);
+  }
+
+  private static String getSql(Shape shape) {
+    String sql = sqlCache.get(shape);
+    if (sql == null) {
+      sql = shape.toSql();
+      if (sqlCache.size() < MAX_CACHED_SHAPES) {
+        String old = sqlCache.putIfAbsent(shape, sql);
+        if (old != null) sql = old;
+      }
+    }
+    return sql;
+  }
+
+  /**
+   * 查询的形状，作为SQL文本的缓存key
+   */
+  private static final class Shape {
+    final String tableName;
+    final String select;
+    final String[] whereColumns;
+    final String seek;
+    final String groupBy;
+    final String having;
+    final String[] orderBy;
+    final String limit;
+    final int hash;
+
+    Shape(String tableName, String select, String[] whereColumns, String seek, String groupBy, String having, String[] orderBy, String limit) {
+      this.tableName = tableName;
+      this.select = select;
+      this.whereColumns = whereColumns;
+      this.seek = seek;
+      this.groupBy = groupBy;
+      this.having = having;
+      this.orderBy = orderBy;
+      this.limit = limit;
+      int h = tableName.hashCode();
+      h = 31 * h + select.hashCode();
+      h = 31 * h + Arrays.hashCode(whereColumns);
+      h = 31 * h + (seek == null ? 0 : seek.hashCode());
+      h = 31 * h + (groupBy == null ? 0 : groupBy.hashCode());
+      h = 31 * h + (having == null ? 0 : having.hashCode());
+      h = 31 * h + Arrays.hashCode(orderBy);
+      h = 31 * h + (limit == null ? 0 : limit.hashCode());
+      this.hash = h;
+    }
+
+    String toSql() {
+      StringBuilder sql = new StringBuilder("select ").append(select).append(" from `").append(tableName).append("` where 1 = 1");
+      for (String column : whereColumns) {
+        sql.append(" and `").append(column).append("` = ?");
+      }
+      if (seek != null) sql.append(" and ").append(seek);
+      if (groupBy != null) sql.append(" group by ").append(groupBy);
+      if (having != null) sql.append(" having ").append(having);
+      for (int i = 0; i < orderBy.length; i++) {
+        sql.append(i == 0 ? " order by " : ", ").append(orderBy[i]);
+      }
+      if (limit != null) sql.append(limit);
+      return sql.toString();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Shape)) return false;
+      Shape o = (Shape) obj;
+      return hash == o.hash
+          && tableName.equals(o.tableName)
+          && select.equals(o.select)
+          && Arrays.equals(whereColumns, o.whereColumns)
+          && eq(seek, o.seek)
+          && eq(groupBy, o.groupBy)
+          && eq(having, o.having)
+          && Arrays.equals(orderBy, o.orderBy)
+          && eq(limit, o.limit);
+    }
+
+    private static boolean eq(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package org.hacker.core.jpa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hacker.exception.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.Model;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+
+/**
+ * 查询结果缓存，key是SQL文本和绑定的参数，用法:
+ * new Movie().set("type", 1).select().orderBy("id").desc().cache().fetch(0, 10)
+ *
+ * 每条缓存记录都带有它读取的表(包括with()加载关联时使用的mp_中间表)以及读取前这些表的版本号，
+ * 通过JPAModel，BatchKit和BaseService的写操作会增加对应表的版本号，
+ * 读取时只要有一个表的版本号变化就视为失效，所以写操作的代价和缓存的记录数无关
+ * 事务中的写操作在事务提交之后会再增加一次版本号(见CacheSync)，
+ * 提交之前其他线程读进缓存的旧数据因此会失效
+ *
+ * 缓存的数量有上限(jpa.cache.query.size)，超过时按LRU淘汰；
+ * 结果超过jpa.cache.query.maxRows行的查询不进缓存(每次都查库)，
+ * 所以缓存占用的内存最多约为 size * maxRows 行
+ * PS: 事务中不会读写缓存，直接通过Db执行的SQL需要调用CacheSync.invalidate()或CacheSync.invalidateSql()
+ */
+public final class QueryCache {
+  private static final Logger LOG = LoggerFactory.getLogger(QueryCache.class);
+  private static final QueryCache me = new QueryCache();
+  public static final int DEFAULT_MAX_ROWS = 1000;
+  // insert into / replace into / update / delete from
+  private static final Pattern WRITE_TABLE = Pattern.compile(
+      "^\\s*(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|update(?:\\s+ignore)?|delete\\s+from)\\s+`?(\\w+)`?", Pattern.CASE_INSENSITIVE);
+
+  private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong oversized = new AtomicLong();
+  private volatile Cache cache;
+  private volatile int maxRows = DEFAULT_MAX_ROWS;
+
+  private QueryCache() {}
+
+  public static QueryCache me() {
+    return me;
+  }
+
+  /**
+   * 由JPAActiveRecordPlugin在启动时调用
+   *
+   * @param size 最多缓存的查询数量
+   * @param ttl 存活时间(秒)，0表示不过期
+   */
+  public void start(int size, int ttl) {
+    start(size, ttl, DEFAULT_MAX_ROWS);
+  }
+
+  /**
+   * @param size 最多缓存的查询数量
+   * @param ttl 存活时间(秒)，0表示不过期
+   * @param maxRows 单个查询最多缓存的行数，超过的结果不缓存
+   */
+  public synchronized void start(int size, int ttl, int maxRows) {
+    if (size <= 0) throw new IllegalArgumentException("Oop! query cache size must be greater than 0.");
+    if (maxRows <= 0) throw new IllegalArgumentException("Oop! query cache maxRows must be greater than 0.");
+    if (cache != null) return;
+    this.maxRows = maxRows;
+    CacheConfiguration config = new CacheConfiguration("jpa.query", size)
+        .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+        .eternal(ttl <= 0)
+        .timeToLiveSeconds(ttl > 0 ? ttl : 0);
+    Cache cache = new Cache(config);
+    EntityCache.me().getCacheManager().addCache(cache);
+    this.cache = cache;
+    LOG.info("query cache enabled, ttl: {}s, size: {}, maxRows: {}", ttl, size, maxRows);
+  }
+
+  public boolean isEnabled() {
+    return cache != null;
+  }
+
+  /**
+   * 执行dao.find(sql, paras)，结果按(sql, paras)缓存
+   *
+   * @param tables 查询读取的所有表
+   */
+  @SuppressWarnings("unchecked")
+  public <M extends Model<?>> List<M> find(Model<?> dao, String sql, Object[] paras, String... tables) {
+    Cache cache = this.cache;
+    if (cache == null || DbKit.getConfig(dao.getClass()).isInTransaction()) return (List<M>) dao.find(sql, paras);
+    Key key = new Key(sql, paras);
+    Element element = cache.get(key);
+    if (element != null) {
+      Entry entry = (Entry) element.getObjectValue();
+      if (isValid(entry)) {
+        hits.incrementAndGet();
+        return (List<M>) entry.toModels(dao.getClass());
+      }
+      cache.remove(key);
+    }
+    misses.incrementAndGet();
+    // 先取版本号再查询，查询期间发生的写操作会让这条记录在下一次读取时失效
+    long[] tableVersions = new long[tables.length];
+    for (int i = 0; i < tables.length; i++) tableVersions[i] = version(tables[i]).get();
+    List<M> result = (List<M>) dao.find(sql, paras);
+    if (result.size() > maxRows) {
+      // 大结果集不缓存，避免少数几个查询占满堆
+      oversized.incrementAndGet();
+      LOG.debug("query result has {} rows (> maxRows {}), not cached: {}", result.size(), maxRows, sql);
+      return result;
+    }
+    cache.put(new Element(key, new Entry(tables, tableVersions, result)));
+    return result;
+  }
+
+  private boolean isValid(Entry entry) {
+    for (int i = 0; i < entry.tables.length; i++) {
+      if (version(entry.tables[i]).get() != entry.versions[i]) return false;
+    }
+    return true;
+  }
+
+  private AtomicLong version(String table) {
+    AtomicLong version = versions.get(table);
+    if (version == null) {
+      version = new AtomicLong();
+      AtomicLong old = versions.putIfAbsent(table, version);
+      if (old != null) version = old;
+    }
+    return version;
+  }
+
+  /**
+   * 使读取了这些表的缓存失效
+   */
+  public void invalidate(String... tables) {
+    if (cache == null) return;
+    for (String table : tables) {
+      if (table != null) version(table).incrementAndGet();
+    }
+  }
+
+  /**
+   * 从insert/replace/update/delete语句中解析出表名并使其失效，解析不出时清空所有缓存
+   */
+  public void invalidateSql(String sql) {
+    if (cache == null) return;
+    Matcher matcher = WRITE_TABLE.matcher(sql);
+    if (matcher.find()) {
+      invalidate(matcher.group(1));
+    } else {
+      LOG.debug("can't resolve table of sql, clear query cache: {}", sql);
+      clear();
+    }
+  }
+
+  public void clear() {
+    Cache cache = this.cache;
+    if (cache != null) cache.removeAll();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * 因为超过maxRows而没有缓存的查询次数
+   */
+  public long getOversized() {
+    return oversized.get();
+  }
+
+  public int getMaxRows() {
+    return maxRows;
+  }
+
+  public int getSize() {
+    Cache cache = this.cache;
+    return cache == null ? 0 : cache.getSize();
+  }
+
+  @Override
+  public String toString() {
+    long h = hits.get(), total = h + misses.get();
+    return String.format("hits: %d, misses: %d, hitRatio: %.2f, size: %d, oversized: %d", h, total - h, total == 0 ? 0d : (double) h / total, getSize(), oversized.get());
+  }
+
+  public synchronized void shutdown() {
+    cache = null;
+    versions.clear();
+  }
+
+  private static final class Key {
+    final String sql;
+    final Object[] paras;
+    final int hash;
+
+    Key(String sql, Object[] paras) {
+      this.sql = sql;
+      // Integer(1)和Long(1)作为同一个参数
+      this.paras = new Object[paras == null ? 0 : paras.length];
+      for (int i = 0; i < this.paras.length; i++) this.paras[i] = BatchKit.normalizeId(paras[i]);
+      this.hash = 31 * sql.hashCode() + Arrays.hashCode(this.paras);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (!(obj instanceof Key)) return false;
+      Key o = (Key) obj;
+      return hash == o.hash && sql.equals(o.sql) && Arrays.equals(paras, o.paras);
+    }
+  }
+
+  /**
+   * 缓存的是属性的快照，每次命中都创建新的model
+   */
+  private static final class Entry {
+    final String[] tables;
+    final long[] versions;
+    final List<Map<String, Object>> rows;
+
+    Entry(String[] tables, long[] versions, List<? extends Model<?>> models) {
+      this.tables = tables;
+      this.versions = versions;
+      this.rows = new ArrayList<>(models.size());
+      for (Model<?> model : models) {
+        Map<String, Object> attrs = new HashMap<>();
+        for (Map.Entry<String, Object> e : model._getAttrsEntrySet()) attrs.put(e.getKey(), e.getValue());
+        rows.add(attrs);
+      }
+    }
+
+    List<Model<?>> toModels(Class<?> modelClass) {
+      List<Model<?>> result = new ArrayList<>(rows.size());
+      try {
+        for (Map<String, Object> attrs : rows) {
+          Model<?> model = (Model<?>) modelClass.newInstance();
+          model.put(attrs);
+          result.add(model);
+        }
+      } catch (InstantiationException | IllegalAccessException e) {
+        throw new PersistenceException(String.format("Oop! can't create instance of {%s}.", modelClass.getName()), e);
+      }
+      return result;
+    }
+  }
+}
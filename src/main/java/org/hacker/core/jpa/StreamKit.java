@@ -0,0 +1,217 @@
+package org.hacker.core.jpa;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.hacker.core.RowCallback;
+import org.hacker.exception.PersistenceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.ICallback;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * 流式查询，使用只进(forward-only)的ResultSet逐行读取，不会把结果全部放进内存
+ *
+ * MYSQL驱动需要fetchSize为Integer.MIN_VALUE(或者useCursorFetch=true)才会逐行读取
+ * 回调抛出异常中止读取时，先取消(Statement.cancel())查询再关闭，不会读完剩下的行
+ * PS: 在事务中使用时，流式读取结束之前同一个连接上不能执行其他SQL
+ */
+public final class StreamKit {
+  private static final Logger LOG = LoggerFactory.getLogger(StreamKit.class);
+
+  private StreamKit() {}
+
+  /**
+   * 逐行读取model
+   *
+   * @param modelClass model的class
+   * @param sql 查询语句
+   * @param paras 参数
+   * @param reuse 是否复用同一个model实例(回调中不能保存model的引用)
+   * @param callback 每一行的回调
+   * @return 读取的行数
+   */
+  public static <M extends Model<?>> int each(final Class<M> modelClass, final String sql, final Object[] paras, final boolean reuse, final RowCallback<M> callback) {
+    return (Integer) BatchKit.execute(DbKit.getConfig(modelClass), new ICallback() {
+      @Override
+      public Object call(Connection conn) throws SQLException {
+        PreparedStatement pst = prepare(conn, sql, paras);
+        ResultSet rs = null;
+        boolean completed = false;
+        try {
+          rs = pst.executeQuery();
+          Columns columns = new Columns(rs.getMetaData());
+          M model = null;
+          int count = 0;
+          while (rs.next()) {
+            if (model == null || !reuse) {
+              model = newInstance(modelClass);
+            } else {
+              model.clear();
+            }
+            for (int i = 1; i <= columns.labels.length; i++) {
+              model.put(columns.labels[i - 1], readValue(rs, i, columns.types[i - 1]));
+            }
+            invoke(callback, model);
+            count++;
+          }
+          completed = true;
+          return count;
+        } finally {
+          close(pst, rs, completed);
+        }
+      }
+    });
+  }
+
+  /**
+   * 逐行读取Record(使用默认的数据源)
+   *
+   * @return 读取的行数
+   */
+  public static int eachRecord(String sql, Object[] paras, RowCallback<Record> callback) {
+    return eachRecord(DbKit.getConfig(), sql, paras, callback);
+  }
+
+  public static int eachRecord(Config config, final String sql, final Object[] paras, final RowCallback<Record> callback) {
+    return (Integer) BatchKit.execute(config, new ICallback() {
+      @Override
+      public Object call(Connection conn) throws SQLException {
+        PreparedStatement pst = prepare(conn, sql, paras);
+        ResultSet rs = null;
+        boolean completed = false;
+        try {
+          rs = pst.executeQuery();
+          Columns columns = new Columns(rs.getMetaData());
+          int count = 0;
+          while (rs.next()) {
+            Record record = new Record();
+            for (int i = 1; i <= columns.labels.length; i++) {
+              record.set(columns.labels[i - 1], readValue(rs, i, columns.types[i - 1]));
+            }
+            invoke(callback, record);
+            count++;
+          }
+          completed = true;
+          return count;
+        } finally {
+          close(pst, rs, completed);
+        }
+      }
+    });
+  }
+
+  private static PreparedStatement prepare(Connection conn, String sql, Object[] paras) throws SQLException {
+    PreparedStatement pst = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    try {
+      pst.setFetchSize(JPAConfig.getStreamFetchSize());
+      if (paras != null) {
+        for (int i = 0; i < paras.length; i++) {
+          BatchKit.setParameter(pst, i + 1, paras[i]);
+        }
+      }
+      return pst;
+    } catch (SQLException | RuntimeException e) {
+      pst.close();
+      throw e;
+    }
+  }
+
+  /**
+   * 没有读完(回调抛出异常或者线程被中断)时先取消查询再关闭:
+   * MYSQL流式读取的ResultSet在close时会读完并丢弃剩下的所有行，期间一直占用连接
+   * 取消之后关闭时的异常不再抛出，避免覆盖原来的异常
+   */
+  private static void close(PreparedStatement pst, ResultSet rs, boolean completed) throws SQLException {
+    if (completed) {
+      try {
+        if (rs != null) rs.close();
+      } finally {
+        pst.close();
+      }
+      return;
+    }
+    try {
+      pst.cancel();
+    } catch (SQLException | RuntimeException e) {
+      LOG.debug("cancel stream query fail.", e);
+    }
+    try {
+      if (rs != null) rs.close();
+      pst.close();
+    } catch (SQLException | RuntimeException e) {
+      LOG.debug("close cancelled stream query fail.", e);
+      // 确保statement被关闭
+      try {
+        pst.close();
+      } catch (SQLException | RuntimeException ignore) {}
+    }
+  }
+
+  private static <T> void invoke(RowCallback<T> callback, T row) {
+    try {
+      callback.call(row);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new PersistenceException("Oop! stream callback fail: " + e.getMessage(), e);
+    }
+  }
+
+  private static <M> M newInstance(Class<M> modelClass) {
+    try {
+      return modelClass.newInstance();
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new PersistenceException(String.format("Oop! can't create instance of {%s}.", modelClass.getName()), e);
+    }
+  }
+
+  // 和jfinal的ModelBuilder一样处理clob和blob
+  static Object readValue(ResultSet rs, int i, int type) throws SQLException {
+    if (type == Types.CLOB || type == Types.NCLOB) {
+      Clob clob = rs.getClob(i);
+      if (clob == null) return null;
+      try (Reader reader = clob.getCharacterStream()) {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[2048];
+        for (int len; (len = reader.read(buffer)) != -1;) sb.append(buffer, 0, len);
+        return sb.toString();
+      } catch (IOException e) {
+        throw new SQLException(e);
+      }
+    }
+    if (type == Types.BLOB) {
+      Blob blob = rs.getBlob(i);
+      return blob == null ? null : blob.getBytes(1, (int) blob.length());
+    }
+    return rs.getObject(i);
+  }
+
+  static final class Columns {
+    final String[] labels;
+    final int[] types;
+
+    Columns(ResultSetMetaData md) throws SQLException {
+      int count = md.getColumnCount();
+      labels = new String[count];
+      types = new int[count];
+      for (int i = 1; i <= count; i++) {
+        labels[i - 1] = md.getColumnLabel(i);
+        types[i - 1] = md.getColumnType(i);
+      }
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package org.hacker.core.jpa;
+
+/**
+ * 联级更新时处理原关联关系的策略
+ */
+public enum UpdateStrategy {
+  /**
+   * 删除主对象在映射表中的所有关联关系，再添加新的关联关系(hibernate采用了这种策略)
+   */
+  RELINK,
+  /**
+   * 删除原有的从对象(映射表通过外键cascade联级删除)，再添加新的从对象和关联关系
+   */
+  DELETE_OBJECT,
+  /**
+   * 只查询原有从对象的id，和新的从对象做差集:
+   * 只删除被移除的关联关系，只添加新增的关联关系，没有变化的关联关系不做任何操作
+   */
+  DIFF
+}
@@ -0,0 +1,30 @@
+package org.hacker.core.plugin;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.hacker.core.jpa.UpdateStrategy;
+
+/**
+ * 关联字段注解 说明：指定该关联关系联级更新时使用的策略，没有标注时使用全局配置
+ * 
+ * <pre>
+ * &#064;ManyToMany(cascade = CascadeType.ALL)
+ * &#064;CascadeStrategy(UpdateStrategy.DIFF)
+ * private Collection&lt;MovieMan&gt; movieMans;
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD })
+public @interface CascadeStrategy {
+
+  /**
+   * 联级更新的策略
+   * 
+   * @return
+   */
+  UpdateStrategy value();
+
+}
@@ -0,0 +1,142 @@
+package org.hacker.core.plugin;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.hacker.core.JPAModel;
+import org.hacker.core.jpa.CacheSync;
+import org.hacker.core.jpa.EntityCache;
+import org.hacker.core.jpa.JPAConfig;
+import org.hacker.core.jpa.JPAMapping;
+import org.hacker.core.jpa.QueryCache;
+import org.hacker.core.jpa.UpdateStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jfinal.plugin.activerecord.ActiveRecordPlugin;
+import com.jfinal.plugin.activerecord.IDataSourceProvider;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.TableMapping;
+
+/**
+ * 在ActiveRecordPlugin启动后为所有JPAModel构建一次关联元数据(JPAMapping)
+ * 这样JPAModel在save/update/delete时不需要再反射
+ * 并为@Table(cache = true)的model登记二级缓存(EntityCache)，按配置开启查询缓存(QueryCache)
+ * 数据源使用CacheSync包装，事务提交之后才让缓存最终失效
+ */
+public class JPAActiveRecordPlugin extends ActiveRecordPlugin {
+  private static final Logger LOG = LoggerFactory.getLogger(JPAActiveRecordPlugin.class);
+  private final Set<Class<? extends Model<?>>> modelClasses = new LinkedHashSet<>();
+  private boolean entityCache = true;
+  private boolean queryCache = false;
+  private int queryCacheSize = 2000;
+  private int queryCacheTtl = 300;
+  private int queryCacheMaxRows = QueryCache.DEFAULT_MAX_ROWS;
+
+  public JPAActiveRecordPlugin(DataSource dataSource) {
+    super(CacheSync.wrap(dataSource));
+  }
+
+  /**
+   * @param dataSourceProvider 比如DruidPlugin，DataSource在它启动之后才会创建
+   */
+  public JPAActiveRecordPlugin(IDataSourceProvider dataSourceProvider) {
+    super(CacheSync.wrap(dataSourceProvider));
+  }
+
+  @Override
+  public ActiveRecordPlugin addMapping(String tableName, String primaryKey, Class<? extends Model<?>> modelClass) {
+    modelClasses.add(modelClass);
+    return super.addMapping(tableName, primaryKey, modelClass);
+  }
+
+  @Override
+  public ActiveRecordPlugin addMapping(String tableName, Class<? extends Model<?>> modelClass) {
+    modelClasses.add(modelClass);
+    return super.addMapping(tableName, modelClass);
+  }
+
+  /**
+   * 使用批量方式处理联级添加
+   * 
+   * @param batchSize 每批的大小
+   */
+  public JPAActiveRecordPlugin setCascadeBatch(boolean cascadeBatch, int batchSize) {
+    JPAConfig.setCascadeBatch(cascadeBatch);
+    JPAConfig.setCascadeBatchSize(batchSize);
+    return this;
+  }
+
+  /**
+   * 联级更新的全局策略，关联字段可以使用CascadeStrategy单独指定
+   */
+  public JPAActiveRecordPlugin setUpdateStrategy(UpdateStrategy updateStrategy) {
+    JPAConfig.setUpdateStrategy(updateStrategy);
+    return this;
+  }
+
+  /**
+   * 是否开启二级缓存，关闭时忽略@Table中的cache配置
+   */
+  public JPAActiveRecordPlugin setEntityCache(boolean entityCache) {
+    this.entityCache = entityCache;
+    return this;
+  }
+
+  /**
+   * 开启查询缓存，需要缓存的查询使用select().cache()
+   * 
+   * @param size 最多缓存的查询数量
+   * @param ttl 存活时间(秒)，0表示不过期
+   */
+  public JPAActiveRecordPlugin setQueryCache(boolean queryCache, int size, int ttl) {
+    return setQueryCache(queryCache, size, ttl, QueryCache.DEFAULT_MAX_ROWS);
+  }
+
+  /**
+   * @param maxRows 单个查询最多缓存的行数，超过的结果不缓存
+   */
+  public JPAActiveRecordPlugin setQueryCache(boolean queryCache, int size, int ttl, int maxRows) {
+    this.queryCache = queryCache;
+    this.queryCacheSize = size;
+    this.queryCacheTtl = ttl;
+    this.queryCacheMaxRows = maxRows;
+    return this;
+  }
+
+  @Override
+  public boolean start() {
+    if (!super.start()) return false;
+    JPAMapping mapping = JPAMapping.me();
+    for (Class<? extends Model<?>> modelClass : modelClasses) {
+      if (JPAModel.class.isAssignableFrom(modelClass)) {
+        mapping.putModelMeta(mapping.build(modelClass));
+        // 只有JPAModel的findById会读取缓存
+        if (entityCache) registerEntityCache(modelClass);
+      }
+    }
+    if (queryCache) QueryCache.me().start(queryCacheSize, queryCacheTtl, queryCacheMaxRows);
+    return true;
+  }
+
+  private void registerEntityCache(Class<? extends Model<?>> modelClass) {
+    Table annotation = modelClass.getAnnotation(Table.class);
+    if (annotation == null || !annotation.cache()) return;
+    com.jfinal.plugin.activerecord.Table table = TableMapping.me().getTable(modelClass);
+    if (table.getPrimaryKey().length != 1) {
+      LOG.warn("entity cache only support single primary key, ignore {}", modelClass.getName());
+      return;
+    }
+    EntityCache.me().register(modelClass, table.getColumnType(table.getPrimaryKey()[0]), annotation.cacheTtl(), annotation.cacheSize());
+  }
+
+  @Override
+  public boolean stop() {
+    JPAMapping.me().clear();
+    QueryCache.me().shutdown();
+    EntityCache.me().shutdown();
+    return super.stop();
+  }
+}
@@ -1,38 +1,59 @@
-package org.hacker.core.plugin;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Inherited;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-/**
- * Model注解 说明：标注Model对应的数据源、表、主键
- */
-@Inherited
-@Retention(RetentionPolicy.RUNTIME)
-@Target({ ElementType.TYPE })
-public @interface Table {
-
-  /**
-   * Model对应的数据库
-   * 
-   * @return
-   */
-  String dataSourceName() default "main";
-
-  /**
-   * Model对应的表
-   * 
-   * @return
-   */
-  String tableName();
-
-  /**
-   * Model的主键列名称
-   * 
-   * @return
-   */
-  String pkName() default "id";
-
-}
+package org.hacker.core.plugin;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Model注解 说明：标注Model对应的数据源、表、主键
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE })
+public @interface Table {
+
+  /**
+   * Model对应的数据库
+   * 
+   * @return
+   */
+  String dataSourceName() default "main";
+
+  /**
+   * Model对应的表
+   * 
+   * @return
+   */
+  String tableName();
+
+  /**
+   * Model的主键列名称
+   * 
+   * @return
+   */
+  String pkName() default "id";
+
+  /**
+   * 是否开启二级缓存(按主键缓存findById的结果)，只支持单主键
+   * 
+   * @return
+   */
+  boolean cache() default false;
+
+  /**
+   * 二级缓存的存活时间(秒)，0表示不过期
+   * 
+   * @return
+   */
+  int cacheTtl() default 600;
+
+  /**
+   * 二级缓存最多缓存的对象数量
+   * 
+   * @return
+   */
+  int cacheSize() default 1000;
+
+}
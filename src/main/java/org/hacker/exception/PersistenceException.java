@@ -1,25 +1,25 @@
-package org.hacker.exception;
-
-public class PersistenceException extends RuntimeException {
-	private static final long serialVersionUID = -6656994484983715966L;
-
-	public PersistenceException() {}
-
-	public PersistenceException(String message) {
-		super(message);
-	}
-
-	public PersistenceException(Throwable cause) {
-		super(cause);
-	}
-
-	public PersistenceException(String message, Throwable cause) {
-		super(message, cause);
-	}
-
-	public PersistenceException(String message, Throwable cause,
-			boolean enableSuppression, boolean writableStackTrace) {
-		super(message, cause, enableSuppression, writableStackTrace);
-	}
-
+package org.hacker.exception;
+
+public class PersistenceException extends RuntimeException {
+	private static final long serialVersionUID = -6656994484983715966L;
+
+	public PersistenceException() {}
+
+	public PersistenceException(String message) {
+		super(message);
+	}
+
+	public PersistenceException(Throwable cause) {
+		super(cause);
+	}
+
+	public PersistenceException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public PersistenceException(String message, Throwable cause,
+			boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package org.hacker.module.common;
+
+/**
+ * KExcel中argumentTypes的分类，每一列只判断一次
+ */
+enum ExcelColumnType {
+  STRING, DATE, NUMBER, INTEGER, BOOLEAN,
+  /**
+   * 没有符合的类型，使用toString()
+   */
+  OTHER;
+  
+  /**
+   * 和KExcel.writer的判断顺序一致: String, Date/Timestamp, BigDecimal, Integer, Boolean
+   */
+  static ExcelColumnType of(String argumentType) {
+    if (argumentType.contains("String")) return STRING;
+    if (argumentType.contains("Date") || argumentType.contains("Timestamp")) return DATE;
+    if (argumentType.contains("BigDecimal")) return NUMBER;
+    if (argumentType.contains("Integer")) return INTEGER;
+    if (argumentType.contains("Boolean")) return BOOLEAN;
+    return OTHER;
+  }
+  
+}
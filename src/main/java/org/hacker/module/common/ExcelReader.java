@@ -0,0 +1,415 @@
+package org.hacker.module.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.NPOIFSFileSystem;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.hacker.core.ChunkCallback;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * 流式读取Excel，不会把工作簿放进内存:
+ * xls使用POI的事件模型(HSSFEventFactory)，xlsx使用SAX(XSSFSheetXMLHandler)
+ *
+ * 每一行按argumentNames的顺序(从第0列开始)读取，按argumentTypes转换成Record，
+ * 每读满chunkSize行调用一次callback，空行会被跳过
+ * argumentNames为null时第一个非空行作为列名，所有值都作为String
+ */
+final class ExcelReader {
+  private static final String timeStampPattern = "yyyy-MM-dd HH:mm:ss";
+  private static final String datePattern = "yyyy-MM-dd";
+
+  private enum ReadType {
+    STRING, DATE, SQL_DATE, TIMESTAMP, BIG_DECIMAL, INTEGER, LONG, DOUBLE, BOOLEAN
+  }
+
+  private String[] argumentNames;
+  private ReadType[] types;
+  private final int headerNum;
+  private final int chunkSize;
+  private final ChunkCallback<Record> callback;
+
+  private String[] values = new String[16];
+  private int rowNum = -1;
+  private boolean rowOpen;
+  private boolean rowHasValue;
+  private List<Record> chunk;
+  private int count;
+  private SimpleDateFormat timeStampFormat;
+  private SimpleDateFormat dateFormat;
+
+  /**
+   * @param headerNum 标题行的下标，下标不大于headerNum的行都会被跳过，没有标题时使用-1
+   */
+  ExcelReader(String[] argumentNames, String[] argumentTypes, int headerNum, int chunkSize, ChunkCallback<Record> callback) {
+    if (chunkSize <= 0) throw new IllegalArgumentException("Oop~ chunkSize must be greater than 0.");
+    if (argumentNames != null) {
+      if (argumentTypes == null || argumentTypes.length != argumentNames.length) throw new IllegalArgumentException();
+      this.argumentNames = argumentNames;
+      this.types = new ReadType[argumentTypes.length];
+      for (int j = 0; j < argumentTypes.length; j++) types[j] = readType(argumentTypes[j]);
+      this.values = new String[argumentNames.length];
+    }
+    this.headerNum = headerNum;
+    this.chunkSize = chunkSize;
+    this.callback = callback;
+    this.chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+  }
+
+  private static ReadType readType(String argumentType) {
+    if (argumentType.contains("String")) return ReadType.STRING;
+    if (argumentType.contains("Timestamp")) return ReadType.TIMESTAMP;
+    if (argumentType.contains("java.sql.Date")) return ReadType.SQL_DATE;
+    if (argumentType.contains("Date")) return ReadType.DATE;
+    if (argumentType.contains("BigDecimal")) return ReadType.BIG_DECIMAL;
+    if (argumentType.contains("Integer")) return ReadType.INTEGER;
+    if (argumentType.contains("Long")) return ReadType.LONG;
+    if (argumentType.contains("Double") || argumentType.contains("Float")) return ReadType.DOUBLE;
+    if (argumentType.contains("Boolean")) return ReadType.BOOLEAN;
+    return ReadType.STRING;
+  }
+
+  /**
+   * @return 读取的行数(不包括标题和空行)
+   */
+  int read(File file, int sheetIndex) throws IOException {
+    String filename = file.getName().toLowerCase();
+    if (filename.endsWith(".xls")) {
+      readXls(file, sheetIndex);
+    } else if (filename.endsWith(".xlsx")) {
+      readXlsx(file, sheetIndex);
+    } else {
+      throw new IllegalArgumentException("Oop~ " + file.getName() + " is not a xls/xlsx file.");
+    }
+    return count;
+  }
+
+  // ----- xls
+
+  private void readXls(File file, final int sheetIndex) throws IOException {
+    NPOIFSFileSystem fs = new NPOIFSFileSystem(file, true);
+    try {
+      XlsListener listener = new XlsListener(sheetIndex);
+      HSSFRequest request = new HSSFRequest();
+      request.addListenerForAllRecords(new MissingRecordAwareHSSFListener(listener));
+      new HSSFEventFactory().processWorkbookEvents(request, fs.getRoot());
+      if (listener.sheet < sheetIndex) throw new IllegalArgumentException("Oop~ " + file.getName() + " has no sheet " + sheetIndex + ".");
+      finish();
+    } finally {
+      fs.close();
+    }
+  }
+
+  private final class XlsListener implements HSSFListener {
+    private final int sheetIndex;
+    private int sheet = -1;
+    private boolean target;
+    private SSTRecord sst;
+    // 字符串结果的公式，值在下一个StringRecord中
+    private CellValueRecordInterface stringFormula;
+
+    XlsListener(int sheetIndex) {
+      this.sheetIndex = sheetIndex;
+    }
+
+    @Override
+    public void processRecord(org.apache.poi.hssf.record.Record record) {
+      switch (record.getSid()) {
+      case BOFRecord.sid:
+        if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+          if (target) endRow();
+          target = ++sheet == sheetIndex;
+        }
+        return;
+      case SSTRecord.sid:
+        sst = (SSTRecord) record;
+        return;
+      default:
+      }
+      if (!target) return;
+      switch (record.getSid()) {
+      case NumberRecord.sid:
+        NumberRecord number = (NumberRecord) record;
+        cell(number.getRow(), number.getColumn(), plain(number.getValue()));
+        break;
+      case LabelSSTRecord.sid:
+        LabelSSTRecord label = (LabelSSTRecord) record;
+        cell(label.getRow(), label.getColumn(), sst.getString(label.getSSTIndex()).getString());
+        break;
+      case LabelRecord.sid:
+        LabelRecord oldLabel = (LabelRecord) record;
+        cell(oldLabel.getRow(), oldLabel.getColumn(), oldLabel.getValue());
+        break;
+      case BoolErrRecord.sid:
+        BoolErrRecord boolErr = (BoolErrRecord) record;
+        if (boolErr.isBoolean()) cell(boolErr.getRow(), boolErr.getColumn(), boolErr.getBooleanValue() ? "TRUE" : "FALSE");
+        break;
+      case FormulaRecord.sid:
+        FormulaRecord formula = (FormulaRecord) record;
+        if (formula.hasCachedResultString()) {
+          stringFormula = formula;
+        } else if (formula.getCachedResultType() == Cell.CELL_TYPE_BOOLEAN) {
+          cell(formula.getRow(), formula.getColumn(), formula.getCachedBooleanValue() ? "TRUE" : "FALSE");
+        } else if (formula.getCachedResultType() == Cell.CELL_TYPE_NUMERIC) {
+          cell(formula.getRow(), formula.getColumn(), plain(formula.getValue()));
+        }
+        break;
+      case StringRecord.sid:
+        if (stringFormula != null) {
+          cell(stringFormula.getRow(), stringFormula.getColumn(), ((StringRecord) record).getString());
+          stringFormula = null;
+        }
+        break;
+      default:
+        if (record instanceof LastCellOfRowDummyRecord) endRow();
+      }
+    }
+
+    private void cell(int row, int column, String raw) {
+      if (row != rowNum || !rowOpen) {
+        endRow();
+        startRow(row);
+      }
+      ExcelReader.this.cell(column, raw);
+    }
+  }
+
+  // ----- xlsx
+
+  private void readXlsx(File file, int sheetIndex) throws IOException {
+    OPCPackage pkg;
+    try {
+      pkg = OPCPackage.open(file, PackageAccess.READ);
+    } catch (OpenXML4JException e) {
+      throw new IOException("Oop~ can't open " + file.getName(), e);
+    }
+    try {
+      ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+      XSSFReader reader = new XSSFReader(pkg);
+      StylesTable styles = reader.getStylesTable();
+      Iterator<InputStream> sheets = reader.getSheetsData();
+      for (int index = 0; sheets.hasNext(); index++) {
+        InputStream in = sheets.next();
+        try {
+          if (index != sheetIndex) continue;
+          // SAXHelper关闭了外部实体(XXE)
+          XMLReader parser = SAXHelper.newXMLReader();
+          parser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, new XlsxHandler(), new RawDataFormatter(), false));
+          parser.parse(new InputSource(in));
+          finish();
+          return;
+        } finally {
+          in.close();
+        }
+      }
+      throw new IllegalArgumentException("Oop~ " + file.getName() + " has no sheet " + sheetIndex + ".");
+    } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+      throw new IOException("Oop~ read " + file.getName() + " fail.", e);
+    } finally {
+      // 只读打开，revert关闭时不会写回
+      pkg.revert();
+    }
+  }
+
+  private final class XlsxHandler implements SheetContentsHandler {
+    @Override
+    public void startRow(int row) {
+      ExcelReader.this.startRow(row);
+    }
+
+    @Override
+    public void endRow(int row) {
+      ExcelReader.this.endRow();
+    }
+
+    @Override
+    public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+      ExcelReader.this.cell(new CellReference(cellReference).getCol(), formattedValue);
+    }
+
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+    }
+  }
+
+  /**
+   * XSSFSheetXMLHandler会按单元格的格式格式化数字(包括日期)，这里返回原始的数值，由argumentTypes决定如何转换
+   */
+  private static final class RawDataFormatter extends DataFormatter {
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString) {
+      return plain(value);
+    }
+
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+      return plain(value);
+    }
+  }
+
+  private static String plain(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) return String.valueOf(value);
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+
+  // ----- rows
+
+  private void startRow(int row) {
+    rowNum = row;
+    rowOpen = true;
+    rowHasValue = false;
+    Arrays.fill(values, null);
+  }
+
+  private void cell(int column, String raw) {
+    if (raw == null || raw.isEmpty()) return;
+    if (column >= values.length) {
+      // 从标题读取列名时列数未知
+      if (argumentNames != null) return;
+      values = Arrays.copyOf(values, Math.max(column + 1, values.length * 2));
+    }
+    values[column] = raw;
+    rowHasValue = true;
+  }
+
+  private void endRow() {
+    if (!rowOpen) return;
+    rowOpen = false;
+    if (!rowHasValue) return;
+    if (argumentNames == null) {
+      header();
+      return;
+    }
+    if (rowNum <= headerNum) return;
+    Record record = new Record();
+    for (int j = 0; j < argumentNames.length; j++) {
+      try {
+        record.set(argumentNames[j], convert(types[j], values[j]));
+      } catch (Exception e) {
+        throw new IllegalArgumentException("Oop~ can't convert row " + (rowNum + 1) + " column " + CellReference.convertNumToColString(j) + ": " + values[j], e);
+      }
+    }
+    chunk.add(record);
+    count++;
+    if (chunk.size() >= chunkSize) flush();
+  }
+
+  // 第一个非空行作为列名
+  private void header() {
+    int columns = values.length;
+    while (columns > 0 && StrKit.isBlank(values[columns - 1])) columns--;
+    argumentNames = new String[columns];
+    types = new ReadType[columns];
+    for (int j = 0; j < columns; j++) {
+      argumentNames[j] = StrKit.isBlank(values[j]) ? CellReference.convertNumToColString(j) : values[j].trim();
+      types[j] = ReadType.STRING;
+    }
+    values = new String[columns];
+  }
+
+  private void finish() {
+    endRow();
+    if (!chunk.isEmpty()) flush();
+  }
+
+  private void flush() {
+    try {
+      callback.call(chunk);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+    chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+  }
+
+  private Object convert(ReadType type, String raw) throws ParseException {
+    if (raw == null) return null;
+    if (type == ReadType.STRING) return raw;
+    String s = raw.trim();
+    if (s.isEmpty()) return null;
+    switch (type) {
+    case DATE:
+      return toDate(s);
+    case SQL_DATE:
+      return new java.sql.Date(toDate(s).getTime());
+    case TIMESTAMP:
+      return new java.sql.Timestamp(toDate(s).getTime());
+    case BIG_DECIMAL:
+      return new BigDecimal(s);
+    case INTEGER:
+      return new BigDecimal(s).intValueExact();
+    case LONG:
+      return new BigDecimal(s).longValueExact();
+    case DOUBLE:
+      return Double.parseDouble(s);
+    case BOOLEAN:
+      if ("1".equals(s) || "true".equalsIgnoreCase(s)) return Boolean.TRUE;
+      if ("0".equals(s) || "false".equalsIgnoreCase(s)) return Boolean.FALSE;
+      throw new IllegalArgumentException("Can not parse to boolean type of value: " + s);
+    default:
+      return s;
+    }
+  }
+
+  /**
+   * 数字作为Excel的日期序号，文本按yyyy-MM-dd[ HH:mm:ss]解析
+   */
+  private Date toDate(String s) throws ParseException {
+    char first = s.charAt(0);
+    if ((first >= '0' && first <= '9') && s.indexOf('-') < 0) {
+      return DateUtil.getJavaDate(Double.parseDouble(s));
+    }
+    if (s.length() >= timeStampPattern.length()) {
+      if (timeStampFormat == null) timeStampFormat = new SimpleDateFormat(timeStampPattern);
+      return timeStampFormat.parse(s);
+    }
+    if (dateFormat == null) dateFormat = new SimpleDateFormat(datePattern);
+    return dateFormat.parse(s);
+  }
+
+}
@@ -1,182 +1,320 @@
-package org.hacker.module.common;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.List;
-import java.util.Map;
-
-import org.apache.poi.hssf.usermodel.HSSFDataFormat;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.DataFormat;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-
-import com.jfinal.kit.StrKit;
-import com.jfinal.plugin.activerecord.Record;
-
-public class KExcel {
-  // 定制日期格式
-  private static String DATE_FORMAT = "yyyy-mm-dd h:mm"; // "m/d/yy h:mm"
-
-  // 定制浮点数格式
-  private static String NUMBER_FORMAT = "#,##0.00";
-  
-  @Deprecated
-  public static void read(File file, String[] argumentNames, String[] argumentTypes, int headerNum, int sheetIndex) {
-    Assert.checkNotNull(file, "file");
-    String filename = file.getName();
-    try {
-      FileInputStream fileIn = new FileInputStream(file);
-      Workbook wb = null;
-      Sheet sheet = null;
-      if(filename.toLowerCase().endsWith("xls")) {
-        wb = new HSSFWorkbook(fileIn);
-      } else if(filename.toLowerCase().endsWith("xls")) {
-//        wb = new XSSFWorkbook(fileIn);
-      }
-      if(wb.getNumberOfSheets() < sheetIndex) {
-        throw new RuntimeException("Oop~ " + filename + " is no sheet.");
-      }
-      sheet = wb.getSheetAt(sheetIndex);
-      
-      for(int i = headerNum + 1; i < sheet.getLastRowNum() + headerNum; i++) {
-        Row row = sheet.getRow(i);
-        int colums = 0;
-        for(String argumentName : argumentNames) {
-          Cell cell = row.getCell(colums);
-          if(cell != null) {
-            System.out.println(argumentName);
-          }
-          colums++;
-        }
-      }
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-  }
-   
-  public static void read(String filename) {
-    Assert.checkNotNull(filename, "file name");
-
-  }
-  
-  @SuppressWarnings("resource")
-  /**
-   * 导出Excel
-   * 
-   * @param filename
-   * @param list 实际数据
-   * @param argumentNames 参数名称
-   * @param argumentTypes 参数类型
-   * @param title 标题
-   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
-   */
-  public static void writer(String filename, List<Record> list, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
-    FileOutputStream fileOut = null;
-    try {
-      if(
-          list == null || StrKit.isBlank(filename) || 
-          title == null || title.length == 0 ||
-          argumentNames == null || argumentNames.length == 0 ||
-          argumentTypes == null || argumentTypes.length == 0 ||
-          argumentTypes.length != argumentNames.length ||
-          argumentNames.length != title.length
-      ) throw new IllegalArgumentException();
-      // create a new workbook
-      Workbook wb = new HSSFWorkbook();
-      wb.createCellStyle().setDataFormat(HSSFDataFormat.getBuiltinFormat("m/d/yy h:mm"));    
-      // create a new sheet
-      Sheet s = wb.createSheet();
-      // declare a row object reference
-      Row r = null;
-      // declare a cell object reference
-      Cell c = null;
-      // create title
-      r = s.createRow(0);
-      // init format 为了避免:
-      // The maximum number of cell styles was exceeded. You can define up to 4000 styles in a .xls workbook
-      // CellStyle不能创建太多次
-      
-      // ----- number style
-      CellStyle numberCellStyle = wb.createCellStyle(); // 建立新的cell样式  
-      DataFormat numberFormat = wb.createDataFormat();
-      numberCellStyle.setDataFormat(numberFormat.getFormat(NUMBER_FORMAT)); // 设置cell样式为定制的浮点数格式  
-      
-      // ----- date style
-      CellStyle dateCellStyle = wb.createCellStyle();
-      String dateFormatStr = "";
-      DataFormat dateFormat = wb.createDataFormat();
-
-      // ----- inter style
-      CellStyle integerCellStyle = wb.createCellStyle(); // 建立新的cell样式  
-      DataFormat integerFormat = wb.createDataFormat();
-      integerCellStyle.setDataFormat(integerFormat.getFormat("0")); // 设置cell样式为定制Integer
-      
-      // -----
-      for(int i = 0; i < title.length; i++) {
-        c = r.createCell(i);
-        c.setCellValue(title[i]);
-      }
-      for(int i = 0; i < list.size(); i++) {
-        Record o = list.get(i);
-        r = s.createRow(i + 1);
-        for(int j = 0; j < title.length; j++) {
-          c = r.createCell(j);
-          if(argumentTypes[j].contains("String"))
-            c.setCellValue(o.getStr(argumentNames[j]));
-          else if(argumentTypes[j].contains("Date") || argumentTypes[j].contains("Timestamp")) {
-            // 使用自定义的dateformat
-            if(customDateFormat != null) {
-              dateFormatStr = customDateFormat.get(argumentNames[j]);
-              if(StrKit.isBlank(dateFormatStr)) {
-                dateFormatStr = DATE_FORMAT;
-              }
-            }
-            dateCellStyle.setDataFormat(dateFormat.getFormat(dateFormatStr));
-            c.setCellStyle(dateCellStyle);
-            c.setCellValue(o.getDate(argumentNames[j]));
-          } else if(argumentTypes[j].contains("BigDecimal")) {
-            Object obj = o.get(argumentNames[j], 0);
-            c.setCellType(Cell.CELL_TYPE_NUMERIC);
-            c.setCellStyle(numberCellStyle); // 设置该cell浮点数的显示格式  
-            c.setCellValue(Double.parseDouble(obj.toString()));
-          } else if(argumentTypes[j].contains("Integer")) {
-            Object obj = o.get(argumentNames[j], 0);
-            c.setCellType(Cell.CELL_TYPE_NUMERIC);
-            c.setCellStyle(integerCellStyle); // 设置该cell浮点数的显示格式 
-            c.setCellValue(Double.parseDouble(obj.toString()));
-          }
-          else if(argumentTypes[j].contains("Boolean"))
-            c.setCellValue(o.getBoolean(argumentNames[j]));
-          else {
-            // 如果没有符合类型，默认使用String
-            Object obj = o.get(argumentNames[j]);
-            c.setCellValue(obj != null ? obj.toString() : "");
-          }
-        }
-      }
-      // Write the output to a file
-      fileOut = new FileOutputStream(filename);
-      wb.write(fileOut);
-      fileOut.flush();
-      fileOut.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }finally{
-      try {
-        if(fileOut != null)
-          fileOut.close();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-  }
-}
+package org.hacker.module.common;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.hacker.core.ChunkCallback;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Model;
+import com.jfinal.plugin.activerecord.Record;
+
+public class KExcel {
+  // 定制日期格式
+  static final String DATE_FORMAT = "yyyy-mm-dd h:mm"; // "m/d/yy h:mm"
+
+  // 定制浮点数格式
+  private static String NUMBER_FORMAT = "#,##0.00";
+  
+  /**
+   * 读取Excel(xls/xlsx)的全部数据，数据量大时使用分批的版本
+   * 
+   * @see #read(File, String[], String[], int, int, int, ChunkCallback)
+   */
+  public static List<Record> read(File file, String[] argumentNames, String[] argumentTypes, int headerNum, int sheetIndex) throws IOException {
+    final List<Record> list = new ArrayList<>();
+    read(file, argumentNames, argumentTypes, headerNum, sheetIndex, 1024, new ChunkCallback<Record>() {
+      @Override
+      public void call(List<Record> chunk) {
+        list.addAll(chunk);
+      }
+    });
+    return list;
+  }
+  
+  /**
+   * 流式读取Excel，xls使用POI的事件模型，xlsx使用SAX，不会把工作簿放进内存(见ExcelReader)
+   * 每读满chunkSize行调用一次callback，可以直接交给BaseService的批量添加
+   * 
+   * @param file xls/xlsx文件
+   * @param argumentNames 参数名称，按顺序对应第0列, 第1列...
+   * @param argumentTypes 参数类型，和KExcel.writer一致(String, Date, Timestamp, BigDecimal, Integer...)
+   * @param headerNum 标题行的下标，下标不大于headerNum的行都会被跳过，没有标题时使用-1
+   * @param sheetIndex 工作表的下标
+   * @param chunkSize 每批的行数
+   * @param callback 分批回调
+   * @return 读取的行数(不包括标题和空行)
+   */
+  public static int read(File file, String[] argumentNames, String[] argumentTypes, int headerNum, int sheetIndex, int chunkSize, ChunkCallback<Record> callback) throws IOException {
+    Assert.checkNotNull(file, "file");
+    if (argumentNames == null || argumentNames.length == 0) throw new IllegalArgumentException();
+    return new ExcelReader(argumentNames, argumentTypes, headerNum, chunkSize, callback).read(file, sheetIndex);
+  }
+  
+  /**
+   * 流式读取Excel并转换成model，空值不会set(使用数据库的默认值)
+   * 
+   * @see #read(File, String[], String[], int, int, int, ChunkCallback)
+   */
+  public static <M extends Model<M>> int read(File file, final Class<M> modelClass, final String[] argumentNames, String[] argumentTypes, int headerNum, int sheetIndex, int chunkSize, final ChunkCallback<M> callback) throws IOException {
+    return read(file, argumentNames, argumentTypes, headerNum, sheetIndex, chunkSize, new ChunkCallback<Record>() {
+      @Override
+      public void call(List<Record> chunk) throws Exception {
+        List<M> models = new ArrayList<>(chunk.size());
+        for (Record record : chunk) {
+          M model = modelClass.newInstance();
+          for (String name : argumentNames) {
+            Object value = record.get(name);
+            if (value != null) model.set(name, value);
+          }
+          models.add(model);
+        }
+        callback.call(models);
+      }
+    });
+  }
+  
+  /**
+   * 读取第一个工作表，第一个非空行作为列名，所有值都作为String
+   */
+  public static List<Record> read(String filename) throws IOException {
+    Assert.checkNotNull(filename, "file name");
+    final List<Record> list = new ArrayList<>();
+    new ExcelReader(null, null, -1, 1024, new ChunkCallback<Record>() {
+      @Override
+      public void call(List<Record> chunk) {
+        list.addAll(chunk);
+      }
+    }).read(new File(filename), 0);
+    return list;
+  }
+  
+  /**
+   * 流式导出xlsx，逐行从rows读取并写入，内存占用和行数无关(见XlsxWriter)
+   * 
+   * @param out 输出流，写完后关闭；中途出错时不写入zip的结尾，直接关闭(见XlsxWriter.abort())
+   * @param rows 实际数据
+   * @param argumentNames 参数名称
+   * @param argumentTypes 参数类型
+   * @param title 标题
+   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+   * @return 写入的行数
+   */
+  public static int writeXlsx(OutputStream out, Iterator<Record> rows, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) throws IOException {
+    if (out == null || rows == null) throw new IllegalArgumentException();
+    XlsxWriter writer = new XlsxWriter(out);
+    boolean done = false;
+    try {
+      writer.sheet(null, argumentNames, argumentTypes, title, customDateFormat);
+      while (rows.hasNext()) writer.write(rows.next());
+      // 只有全部写完才写入zip的结尾，否则得到的是被截断但可以打开的文件
+      writer.close();
+      done = true;
+    } finally {
+      if (!done) writer.abort();
+    }
+    return writer.getRows();
+  }
+  
+  /**
+   * 流式导出xlsx到文件，失败时删除文件
+   * 
+   * @see #writeXlsx(OutputStream, Iterator, String[], String[], String[], Map)
+   */
+  public static int writeXlsx(String filename, Iterator<Record> rows, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) throws IOException {
+    if (StrKit.isBlank(filename)) throw new IllegalArgumentException();
+    File file = new File(filename);
+    boolean done = false;
+    try {
+      int count = writeXlsx(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024), rows, argumentNames, argumentTypes, title, customDateFormat);
+      done = true;
+      return count;
+    } finally {
+      if (!done) file.delete();
+    }
+  }
+  
+  @SuppressWarnings("resource")
+  /**
+   * 导出Excel
+   * 
+   * @param filename
+   * @param list 实际数据
+   * @param argumentNames 参数名称
+   * @param argumentTypes 参数类型
+   * @param title 标题
+   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+   */
+  public static void writer(String filename, List<Record> list, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
+    FileOutputStream fileOut = null;
+    try {
+      if(
+          list == null || StrKit.isBlank(filename) || 
+          title == null || title.length == 0 ||
+          argumentNames == null || argumentNames.length == 0 ||
+          argumentTypes == null || argumentTypes.length == 0 ||
+          argumentTypes.length != argumentNames.length ||
+          argumentNames.length != title.length
+      ) throw new IllegalArgumentException();
+      // create a new workbook
+      Workbook wb = new HSSFWorkbook();
+      // create a new sheet
+      Sheet s = wb.createSheet();
+      // declare a row object reference
+      Row r = null;
+      // declare a cell object reference
+      Cell c = null;
+      // create title
+      r = s.createRow(0);
+      // 每一列的类型和样式只确定一次
+      CellWriter[] writers = compile(wb, argumentNames, argumentTypes, customDateFormat);
+      
+      // -----
+      for(int i = 0; i < title.length; i++) {
+        c = r.createCell(i);
+        c.setCellValue(title[i]);
+      }
+      for(int i = 0; i < list.size(); i++) {
+        Record o = list.get(i);
+        r = s.createRow(i + 1);
+        for(int j = 0; j < writers.length; j++) {
+          writers[j].write(r.createCell(j), o);
+        }
+      }
+      // Write the output to a file
+      fileOut = new FileOutputStream(filename);
+      wb.write(fileOut);
+      fileOut.flush();
+      fileOut.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }finally{
+      try {
+        if(fileOut != null)
+          fileOut.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  /**
+   * 一列的单元格写入，类型和样式在compile时确定
+   */
+  private interface CellWriter {
+    void write(Cell c, Record o);
+  }
+  
+  /**
+   * 按argumentTypes为每一列生成CellWriter
+   * 
+   * init format 为了避免:
+   * The maximum number of cell styles was exceeded. You can define up to 4000 styles in a .xls workbook
+   * CellStyle不能创建太多次，浮点数和整数各一个样式，日期每种格式一个样式
+   */
+  private static CellWriter[] compile(Workbook wb, String[] argumentNames, String[] argumentTypes, Map<String, String> customDateFormat) {
+    DataFormat dataFormat = wb.createDataFormat();
+    // ----- number style
+    final CellStyle numberCellStyle = wb.createCellStyle();
+    numberCellStyle.setDataFormat(dataFormat.getFormat(NUMBER_FORMAT)); // 设置cell样式为定制的浮点数格式
+    // ----- integer style
+    final CellStyle integerCellStyle = wb.createCellStyle();
+    integerCellStyle.setDataFormat(dataFormat.getFormat("0")); // 设置cell样式为定制Integer
+    // ----- date style, key: format
+    Map<String, CellStyle> dateCellStyles = new HashMap<>();
+    
+    CellWriter[] writers = new CellWriter[argumentNames.length];
+    for(int j = 0; j < argumentNames.length; j++) {
+      final String name = argumentNames[j];
+      switch (ExcelColumnType.of(argumentTypes[j])) {
+      case STRING:
+        writers[j] = new CellWriter() {
+          @Override
+          public void write(Cell c, Record o) {
+            c.setCellValue(o.getStr(name));
+          }
+        };
+        break;
+      case DATE:
+        // 使用自定义的dateformat
+        String format = customDateFormat != null ? customDateFormat.get(name) : null;
+        if(StrKit.isBlank(format)) format = DATE_FORMAT;
+        CellStyle style = dateCellStyles.get(format);
+        if(style == null) {
+          style = wb.createCellStyle();
+          style.setDataFormat(dataFormat.getFormat(format));
+          dateCellStyles.put(format, style);
+        }
+        final CellStyle dateCellStyle = style;
+        writers[j] = new CellWriter() {
+          @Override
+          public void write(Cell c, Record o) {
+            c.setCellStyle(dateCellStyle);
+            Date value = o.getDate(name);
+            if(value != null) c.setCellValue(value);
+          }
+        };
+        break;
+      case NUMBER:
+        writers[j] = new NumberCellWriter(name, numberCellStyle);
+        break;
+      case INTEGER:
+        writers[j] = new NumberCellWriter(name, integerCellStyle);
+        break;
+      case BOOLEAN:
+        writers[j] = new CellWriter() {
+          @Override
+          public void write(Cell c, Record o) {
+            Boolean value = o.getBoolean(name);
+            if(value != null) c.setCellValue(value);
+          }
+        };
+        break;
+      default:
+        // 如果没有符合类型，默认使用String
+        writers[j] = new CellWriter() {
+          @Override
+          public void write(Cell c, Record o) {
+            Object obj = o.get(name);
+            c.setCellValue(obj != null ? obj.toString() : "");
+          }
+        };
+      }
+    }
+    return writers;
+  }
+  
+  // BigDecimal, Integer: 空值作为0
+  private static final class NumberCellWriter implements CellWriter {
+    private final String name;
+    private final CellStyle style;
+    
+    NumberCellWriter(String name, CellStyle style) {
+      this.name = name;
+      this.style = style;
+    }
+    
+    @Override
+    public void write(Cell c, Record o) {
+      Object obj = o.get(name, 0);
+      c.setCellStyle(style);
+      c.setCellValue(obj instanceof Number ? ((Number) obj).doubleValue() : Double.parseDouble(obj.toString()));
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package org.hacker.module.common;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * 一个xlsx工作表(xl/worksheets/sheetN.xml)的内容，列的类型，样式和单元格引用在创建时确定
+ * 字符串使用inlineStr，不需要共享字符串表，所以可以边读边写
+ */
+final class XlsxSheet {
+  // 一个工作表最多的行数(包括标题)
+  static final int MAX_ROWS = 1048576;
+  private static final int FLUSH_SIZE = 32 * 1024;
+  private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+  // 1970-01-01在Excel中的序号
+  private static final double EPOCH_SERIAL = 25569d;
+
+  private final String[] argumentNames;
+  private final String[] title;
+  private final ExcelColumnType[] types;
+  private final int[] styles;
+  private final String[] columnRefs;
+  private final TimeZone timeZone = TimeZone.getDefault();
+  private final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 1024);
+  private int rowNum;
+
+  /**
+   * 参数的要求和KExcel.writer一致
+   */
+  XlsxSheet(XlsxStyles xlsxStyles, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
+    if(
+        title == null || title.length == 0 ||
+        argumentNames == null || argumentNames.length == 0 ||
+        argumentTypes == null || argumentTypes.length == 0 ||
+        argumentTypes.length != argumentNames.length ||
+        argumentNames.length != title.length
+    ) throw new IllegalArgumentException();
+    this.argumentNames = argumentNames;
+    this.title = title;
+    this.types = new ExcelColumnType[argumentNames.length];
+    this.styles = new int[argumentNames.length];
+    this.columnRefs = new String[argumentNames.length];
+    for (int j = 0; j < argumentNames.length; j++) {
+      types[j] = ExcelColumnType.of(argumentTypes[j]);
+      columnRefs[j] = columnRef(j);
+      switch (types[j]) {
+      case DATE:
+        String format = customDateFormat == null ? null : customDateFormat.get(argumentNames[j]);
+        styles[j] = xlsxStyles.dateStyle(StrKit.isBlank(format) ? KExcel.DATE_FORMAT : format);
+        break;
+      case NUMBER:
+        styles[j] = XlsxStyles.NUMBER;
+        break;
+      case INTEGER:
+        styles[j] = XlsxStyles.INTEGER;
+        break;
+      default:
+        styles[j] = 0;
+      }
+    }
+  }
+
+  /**
+   * 开始一个新的工作表，写入标题行
+   */
+  void begin(Writer out) throws IOException {
+    rowNum = 0;
+    buf.append(XlsxWriter.XML_HEADER)
+       .append("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+    int r = ++rowNum;
+    buf.append("<row r=\"").append(r).append("\">");
+    for (int j = 0; j < title.length; j++) inlineStr(j, r, title[j]);
+    buf.append("</row>");
+    flush(out);
+  }
+
+  void row(Writer out, Record record) throws IOException {
+    int r = ++rowNum;
+    buf.append("<row r=\"").append(r).append("\">");
+    for (int j = 0; j < argumentNames.length; j++) {
+      Object value = record.get(argumentNames[j]);
+      switch (types[j]) {
+      case DATE:
+        if (value != null) {
+          long time = ((Date) value).getTime();
+          cell(j, r, styles[j], null).append((double) (time + timeZone.getOffset(time)) / DAY_MILLIS + EPOCH_SERIAL).append("</v></c>");
+        }
+        break;
+      case NUMBER:
+      case INTEGER:
+        // 和KExcel.writer一样，空值作为0
+        number(j, r, value == null ? 0 : value);
+        break;
+      case BOOLEAN:
+        if (value != null) cell(j, r, 0, "b").append(toBoolean(value) ? '1' : '0').append("</v></c>");
+        break;
+      default:
+        if (value != null) inlineStr(j, r, value.toString());
+      }
+    }
+    buf.append("</row>");
+    if (buf.length() >= FLUSH_SIZE) flush(out);
+  }
+
+  void end(Writer out) throws IOException {
+    buf.append("</sheetData></worksheet>");
+    flush(out);
+  }
+
+  /**
+   * 已经写入的行数(包括标题)
+   */
+  int getRowNum() {
+    return rowNum;
+  }
+
+  boolean isFull() {
+    return rowNum >= MAX_ROWS;
+  }
+
+  private void flush(Writer out) throws IOException {
+    out.append(buf);
+    buf.setLength(0);
+  }
+
+  private StringBuilder cell(int j, int r, int style, String type) {
+    buf.append("<c r=\"").append(columnRefs[j]).append(r).append('"');
+    if (style != 0) buf.append(" s=\"").append(style).append('"');
+    if (type != null) buf.append(" t=\"").append(type).append('"');
+    return buf.append("><v>");
+  }
+
+  private void number(int j, int r, Object value) {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof BigInteger) {
+      cell(j, r, styles[j], null).append(value.toString()).append("</v></c>");
+      return;
+    }
+    if (value instanceof BigDecimal) {
+      cell(j, r, styles[j], null).append(((BigDecimal) value).toPlainString()).append("</v></c>");
+      return;
+    }
+    double d = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      // xlsx不能保存NaN和Infinity
+      inlineStr(j, r, value.toString());
+    } else {
+      cell(j, r, styles[j], null).append(d).append("</v></c>");
+    }
+  }
+
+  private static boolean toBoolean(Object value) {
+    if (value instanceof Boolean) return (Boolean) value;
+    if (value instanceof Number) return ((Number) value).intValue() != 0;
+    String s = value.toString().trim();
+    return "1".equals(s) || "true".equalsIgnoreCase(s);
+  }
+
+  private void inlineStr(int j, int r, String value) {
+    if (value == null || value.isEmpty()) return;
+    buf.append("<c r=\"").append(columnRefs[j]).append(r).append("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+    escape(buf, value);
+    buf.append("</t></is></c>");
+  }
+
+  /**
+   * XML转义，同时去掉XML 1.0中不允许的控制字符
+   */
+  static void escape(StringBuilder out, String s) {
+    for (int i = 0, len = s.length(); i < len; i++) {
+      char c = s.charAt(i);
+      switch (c) {
+      case '&':
+        out.append("&amp;");
+        break;
+      case '<':
+        out.append("&lt;");
+        break;
+      case '>':
+        out.append("&gt;");
+        break;
+      case '"':
+        out.append("&quot;");
+        break;
+      default:
+        if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+          if (c < 0xFFFE) out.append(c);
+        }
+      }
+    }
+  }
+
+  /**
+   * 0 => A, 25 => Z, 26 => AA
+   */
+  static String columnRef(int index) {
+    StringBuilder ref = new StringBuilder(3);
+    for (int n = index + 1; n > 0; n = (n - 1) / 26) ref.insert(0, (char) ('A' + (n - 1) % 26));
+    return ref.toString();
+  }
+
+}
@@ -0,0 +1,71 @@
+package org.hacker.module.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * xlsx的样式表(xl/styles.xml)，一个工作簿共享一份
+ * 
+ * 固定的样式: 0 默认, 1 浮点数(#,##0.00), 2 整数(0)
+ * 日期样式按格式登记，同一个格式只登记一次
+ */
+final class XlsxStyles {
+  static final int NUMBER = 1;
+  static final int INTEGER = 2;
+  // 内置的numFmtId: 4 => #,##0.00, 1 => 0
+  private static final int NUMBER_FORMAT_ID = 4;
+  private static final int INTEGER_FORMAT_ID = 1;
+  // 自定义的numFmtId从164开始
+  private static final int CUSTOM_FORMAT_ID = 164;
+  
+  private final Map<String, Integer> dateStyles = new HashMap<>();
+  private final List<String> dateFormats = new ArrayList<>();
+  
+  /**
+   * @return 日期格式对应的样式下标
+   */
+  synchronized int dateStyle(String format) {
+    Integer style = dateStyles.get(format);
+    if (style == null) {
+      style = 3 + dateFormats.size();
+      dateFormats.add(format);
+      dateStyles.put(format, style);
+    }
+    return style;
+  }
+  
+  synchronized String toXml() {
+    StringBuilder xml = new StringBuilder(1024);
+    xml.append(XlsxWriter.XML_HEADER)
+       .append("<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+    if (!dateFormats.isEmpty()) {
+      xml.append("<numFmts count=\"").append(dateFormats.size()).append("\">");
+      for (int i = 0; i < dateFormats.size(); i++) {
+        xml.append("<numFmt numFmtId=\"").append(CUSTOM_FORMAT_ID + i).append("\" formatCode=\"");
+        XlsxSheet.escape(xml, dateFormats.get(i));
+        xml.append("\"/>");
+      }
+      xml.append("</numFmts>");
+    }
+    xml.append("<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font></fonts>")
+       .append("<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>")
+       .append("<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>")
+       .append("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>")
+       .append("<cellXfs count=\"").append(3 + dateFormats.size()).append("\">")
+       .append("<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>");
+    xf(xml, NUMBER_FORMAT_ID);
+    xf(xml, INTEGER_FORMAT_ID);
+    for (int i = 0; i < dateFormats.size(); i++) xf(xml, CUSTOM_FORMAT_ID + i);
+    xml.append("</cellXfs>")
+       .append("<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>")
+       .append("</styleSheet>");
+    return xml.toString();
+  }
+  
+  private static void xf(StringBuilder xml, int numFmtId) {
+    xml.append("<xf numFmtId=\"").append(numFmtId).append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/>");
+  }
+  
+}
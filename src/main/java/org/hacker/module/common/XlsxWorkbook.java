@@ -0,0 +1,520 @@
+package org.hacker.module.common;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.hacker.core.RowCallback;
+import org.hacker.core.jpa.StreamKit;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * 多工作表的xlsx报表，每个工作表来自一个独立的查询，在有界的线程池中并行生成
+ *
+ * <pre>
+ * new XlsxWorkbook()
+ *   .addSheet("收入", incomeSql, null, names, types, title, null)
+ *   .addSheet("支出", expenseSql, null, names, types, title, null)
+ *   .setParallelism(4)
+ *   .write("report.xlsx");
+ * </pre>
+ *
+ * 每个工作表的xml边查询边压缩(raw deflate)到自己的临时文件，同时记录crc和大小；
+ * 全部完成后按添加的顺序把压缩好的数据直接拼接成zip，不需要再解压或重新压缩
+ * 所以输出阶段只是文件复制，任何一个工作表失败时不会向out写入任何内容
+ *
+ * 一个工作表失败时中断其他工作表的线程，它们在读到下一行时中止，由StreamKit取消查询(不会读完剩下的行)；
+ * 还在等待第一行(数据库仍在执行查询)的工作表要等到第一行返回才会中止
+ *
+ * PS: 每个并行的工作表占用一个数据库连接，parallelism不要超过连接池的大小；
+ * 不支持zip64，整个文件(压缩后)不能超过4GB
+ */
+public class XlsxWorkbook {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MAX_ZIP_SIZE = 0xFFFFFFFFL;
+
+  private final XlsxStyles styles = new XlsxStyles();
+  private final List<SheetSpec> specs = new ArrayList<>();
+  private Config config;
+  private int parallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private File tempDir;
+  private boolean written;
+
+  /**
+   * 添加一个工作表，参数的要求和KExcel.writer一致
+   *
+   * @param name 工作表名称，为空时使用Sheet1, Sheet2...；超过1048576行时续写到name_2, name_3...
+   * @param sql 查询语句
+   * @param paras 查询参数
+   * @param argumentNames 参数名称
+   * @param argumentTypes 参数类型
+   * @param title 标题
+   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+   */
+  public XlsxWorkbook addSheet(String name, String sql, Object[] paras, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) {
+    if (StrKit.isBlank(sql)) throw new IllegalArgumentException();
+    specs.add(new SheetSpec(StrKit.isBlank(name) ? "Sheet" + (specs.size() + 1) : name, sql, paras,
+        new XlsxSheet(styles, argumentNames, argumentTypes, title, customDateFormat)));
+    return this;
+  }
+
+  /**
+   * 使用指定的数据源，默认使用主数据源
+   */
+  public XlsxWorkbook setConfig(Config config) {
+    this.config = config;
+    return this;
+  }
+
+  /**
+   * 同时生成的工作表数量，默认min(4, CPU数量)
+   */
+  public XlsxWorkbook setParallelism(int parallelism) {
+    if (parallelism < 1) throw new IllegalArgumentException("Oop! parallelism must be greater than 0.");
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * 临时文件的目录，默认java.io.tmpdir
+   */
+  public XlsxWorkbook setTempDir(File tempDir) {
+    this.tempDir = tempDir;
+    return this;
+  }
+
+  /**
+   * 写入文件
+   *
+   * @see #write(OutputStream)
+   */
+  public int write(String filename) throws IOException {
+    if (StrKit.isBlank(filename)) throw new IllegalArgumentException();
+    File file = new File(filename);
+    boolean done = false;
+    try {
+      int rows = write(new FileOutputStream(file));
+      done = true;
+      return rows;
+    } finally {
+      if (!done) file.delete();
+    }
+  }
+
+  /**
+   * 并行生成所有工作表，然后把工作簿写入out
+   *
+   * @param out 输出流，写完后关闭
+   * @return 所有工作表的数据行数(不包括标题)
+   */
+  public int write(OutputStream out) throws IOException {
+    if (out == null) throw new IllegalArgumentException();
+    List<SheetTask> tasks = new ArrayList<>(specs.size());
+    try {
+      if (specs.isEmpty()) throw new IllegalStateException("Oop! call addSheet() before write.");
+      // XlsxSheet有写入状态，一个工作簿只能写一次
+      if (written) throw new IllegalStateException("Oop! workbook already written.");
+      written = true;
+      for (SheetSpec spec : specs) tasks.add(new SheetTask(spec));
+      run(tasks);
+      List<Entry> sheets = new ArrayList<>();
+      List<String> sheetNames = new ArrayList<>();
+      int rows = 0;
+      for (SheetTask task : tasks) {
+        for (Entry part : task.parts) {
+          sheets.add(part);
+          sheetNames.add(part.name);
+        }
+        rows += task.rows;
+      }
+      List<Entry> entries = new ArrayList<>(sheets.size() + 5);
+      entries.add(Entry.of("[Content_Types].xml", XlsxWriter.contentTypes(sheets.size())));
+      entries.add(Entry.of("_rels/.rels", XlsxWriter.rootRels()));
+      entries.add(Entry.of("xl/workbook.xml", XlsxWriter.workbook(sheetNames)));
+      entries.add(Entry.of("xl/_rels/workbook.xml.rels", XlsxWriter.workbookRels(sheets.size())));
+      entries.add(Entry.of("xl/styles.xml", styles.toXml()));
+      for (int i = 0; i < sheets.size(); i++) {
+        Entry sheet = sheets.get(i);
+        // 最终的序号要等所有工作表(包括续写的部分)都完成后才能确定
+        sheet.name = "xl/worksheets/sheet" + (i + 1) + ".xml";
+        entries.add(sheet);
+      }
+      new ZipAssembler(out).write(entries);
+      return rows;
+    } finally {
+      out.close();
+      for (SheetTask task : tasks) task.cleanup();
+    }
+  }
+
+  private void run(List<SheetTask> tasks) throws IOException {
+    final Config config = this.config != null ? this.config : DbKit.getConfig();
+    final AtomicInteger count = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "xlsx-sheet-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+    List<Future<Void>> futures = new ArrayList<>(tasks.size());
+    try {
+      for (final SheetTask task : tasks) {
+        futures.add(completion.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            task.run(config);
+            return null;
+          }
+        }));
+      }
+      // 按完成的顺序检查，任何一个失败都立即返回
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          completion.take().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) throw (IOException) cause;
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          throw new IOException("Oop! sheet fail.", cause);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Oop! workbook interrupted.");
+    } finally {
+      // 一个工作表失败时中止其他还在查询的工作表: 中断之后回调抛出异常，StreamKit取消查询并释放连接
+      for (Future<Void> future : futures) future.cancel(true);
+      executor.shutdownNow();
+    }
+  }
+
+  private static final class SheetSpec {
+    final String name;
+    final String sql;
+    final Object[] paras;
+    final XlsxSheet sheet;
+
+    SheetSpec(String name, String sql, Object[] paras, XlsxSheet sheet) {
+      this.name = name;
+      this.sql = sql;
+      this.paras = paras;
+      this.sheet = sheet;
+    }
+  }
+
+  /**
+   * 生成一个工作表，满1048576行时结束当前部分，开始下一个临时文件
+   */
+  private final class SheetTask implements RowCallback<Record> {
+    final SheetSpec spec;
+    final List<Entry> parts = new ArrayList<>(1);
+    int rows;
+    private SpoolWriter spool;
+    private boolean closed;
+
+    SheetTask(SheetSpec spec) {
+      this.spec = spec;
+    }
+
+    void run(Config config) throws IOException {
+      try {
+        begin();
+        StreamKit.eachRecord(config, spec.sql, spec.paras, this);
+        end();
+      } finally {
+        if (spool != null) spool.abort();
+      }
+    }
+
+    @Override
+    public void call(Record row) throws IOException {
+      if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Oop! sheet {" + spec.name + "} cancelled.");
+      if (spec.sheet.isFull()) {
+        end();
+        begin();
+      }
+      spec.sheet.row(spool.writer, row);
+      rows++;
+    }
+
+    private void begin() throws IOException {
+      String name = parts.isEmpty() ? spec.name : spec.name + "_" + (parts.size() + 1);
+      spool = new SpoolWriter(name, File.createTempFile("xlsx-sheet", ".deflate", tempDir));
+      spec.sheet.begin(spool.writer);
+    }
+
+    private void end() throws IOException {
+      spec.sheet.end(spool.writer);
+      Entry part = spool.finish();
+      spool = null;
+      synchronized (this) {
+        // write()已经失败返回，没有人会再清理这个文件
+        if (closed) {
+          part.file.delete();
+          throw new InterruptedIOException("Oop! sheet {" + spec.name + "} cancelled.");
+        }
+        parts.add(part);
+      }
+    }
+
+    /**
+     * 删除临时文件，失败时被取消的任务可能还没有结束，之后完成的部分由任务自己删除
+     */
+    synchronized void cleanup() {
+      closed = true;
+      for (Entry part : parts) part.file.delete();
+    }
+  }
+
+  /**
+   * 把xml以raw deflate(没有zlib头)写入临时文件，正是zip条目需要的数据格式
+   */
+  private static final class SpoolWriter {
+    final String name;
+    final File file;
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    final CRC32 crc = new CRC32();
+    final DeflaterOutputStream deflate;
+    final Writer writer;
+
+    SpoolWriter(String name, File file) throws IOException {
+      this.name = name;
+      this.file = file;
+      try {
+        this.deflate = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), deflater, BUFFER_SIZE);
+      } catch (IOException e) {
+        deflater.end();
+        file.delete();
+        throw e;
+      }
+      this.writer = new OutputStreamWriter(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          crc.update(b);
+          deflate.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          crc.update(b, off, len);
+          deflate.write(b, off, len);
+        }
+      }, XlsxWriter.UTF_8);
+    }
+
+    Entry finish() throws IOException {
+      try {
+        writer.flush();
+        deflate.finish();
+        deflate.close();
+        return new Entry(name, file, null, crc.getValue(), deflater.getBytesRead(), deflater.getBytesWritten());
+      } catch (IOException | RuntimeException e) {
+        abort();
+        throw e;
+      } finally {
+        deflater.end();
+      }
+    }
+
+    void abort() {
+      try {
+        deflate.close();
+      } catch (IOException | RuntimeException e) {
+        // ignore
+      }
+      deflater.end();
+      file.delete();
+    }
+  }
+
+  /**
+   * 一个已经压缩好的zip条目，数据在临时文件或内存中
+   */
+  private static final class Entry {
+    String name;
+    final File file;
+    final byte[] data;
+    final long crc;
+    final long size;
+    final long compressedSize;
+
+    Entry(String name, File file, byte[] data, long crc, long size, long compressedSize) {
+      this.name = name;
+      this.file = file;
+      this.data = data;
+      this.crc = crc;
+      this.size = size;
+      this.compressedSize = compressedSize;
+    }
+
+    static Entry of(String name, String content) {
+      byte[] bytes = content.getBytes(XlsxWriter.UTF_8);
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+      try {
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buf = new byte[bytes.length + 64];
+        ByteArrayOutputStream data = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        while (!deflater.finished()) {
+          int n = deflater.deflate(buf);
+          data.write(buf, 0, n);
+        }
+        return new Entry(name, null, data.toByteArray(), crc.getValue(), bytes.length, deflater.getBytesWritten());
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+
+  /**
+   * 按顺序写入已经压缩好的条目: 本地文件头 + 数据，最后是中央目录
+   * 大小和crc事先已知，所以不需要数据描述符(data descriptor)
+   */
+  private static final class ZipAssembler {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int DEFLATED = 8;
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private final int dosTime;
+    private long written;
+
+    ZipAssembler(OutputStream out) {
+      this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+      Calendar c = Calendar.getInstance();
+      this.dosTime = (c.get(Calendar.YEAR) - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16
+          | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+    }
+
+    void write(List<Entry> entries) throws IOException {
+      if (entries.size() > 0xFFFF) throw new IOException("Oop! too many zip entries: " + entries.size());
+      long[] offsets = new long[entries.size()];
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        offsets[i] = written;
+        byte[] name = entry.name.getBytes(XlsxWriter.UTF_8);
+        writeInt(LOCAL_HEADER);
+        writeShort(VERSION);
+        writeShort(0);
+        writeShort(DEFLATED);
+        checkSize(entry.size);
+        checkSize(written + 30 + name.length + entry.compressedSize);
+        writeInt(dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(name.length);
+        writeShort(0);
+        writeBytes(name, 0, name.length);
+        copy(entry);
+      }
+      long centralOffset = written;
+      for (int i = 0; i < entries.size(); i++) {
+        Entry entry = entries.get(i);
+        byte[] name = entry.name.getBytes(XlsxWriter.UTF_8);
+        writeInt(CENTRAL_HEADER);
+        writeShort(VERSION);
+        writeShort(VERSION);
+        writeShort(0);
+        writeShort(DEFLATED);
+        writeInt(dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(name.length);
+        // extra, comment, disk, internal attributes
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(offsets[i]);
+        writeBytes(name, 0, name.length);
+      }
+      long centralSize = written - centralOffset;
+      checkSize(written);
+      writeInt(END_OF_CENTRAL);
+      writeShort(0);
+      writeShort(0);
+      writeShort(entries.size());
+      writeShort(entries.size());
+      writeInt(centralSize);
+      writeInt(centralOffset);
+      writeShort(0);
+      out.flush();
+    }
+
+    private void copy(Entry entry) throws IOException {
+      if (entry.data != null) {
+        writeBytes(entry.data, 0, entry.data.length);
+        return;
+      }
+      InputStream in = new FileInputStream(entry.file);
+      try {
+        for (int n; (n = in.read(buf)) != -1;) writeBytes(buf, 0, n);
+      } finally {
+        in.close();
+      }
+    }
+
+    private static void checkSize(long size) throws IOException {
+      if (size > MAX_ZIP_SIZE) throw new IOException("Oop! workbook larger than 4GB, zip64 is not supported.");
+    }
+
+    private void writeShort(int v) throws IOException {
+      out.write(v & 0xFF);
+      out.write((v >>> 8) & 0xFF);
+      written += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+      out.write((int) (v & 0xFF));
+      out.write((int) ((v >>> 8) & 0xFF));
+      out.write((int) ((v >>> 16) & 0xFF));
+      out.write((int) ((v >>> 24) & 0xFF));
+      written += 4;
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      written += len;
+    }
+  }
+
+}
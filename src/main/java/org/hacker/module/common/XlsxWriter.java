@@ -0,0 +1,250 @@
+package org.hacker.module.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.hacker.core.RowCallback;
+
+import com.jfinal.kit.StrKit;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * 流式的xlsx(SpreadsheetML)写入，每一行写完就进入zip流，内存占用和行数无关
+ *
+ * <pre>
+ * XlsxWriter writer = new XlsxWriter(out);
+ * boolean done = false;
+ * try {
+ *   writer.sheet("movie", argumentNames, argumentTypes, title, customDateFormat);
+ *   StreamKit.eachRecord(sql, paras, writer);
+ *   writer.close();
+ *   done = true;
+ * } finally {
+ *   if (!done) writer.abort();
+ * }
+ * </pre>
+ *
+ * 只在全部写完时调用close()，中途出错时调用abort()，否则得到的是看起来完整但被截断的文件
+ *
+ * 列的类型和日期格式与KExcel.writer的argumentTypes/customDateFormat一致
+ * 一个工作表超过1048576行时自动续写到下一个工作表(name_2, name_3...)，标题行会重复
+ */
+public class XlsxWriter implements RowCallback<Record>, Closeable {
+  static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final OutputStream target;
+  private final Zip zip;
+  private final Writer out;
+  private final XlsxStyles styles = new XlsxStyles();
+  private final List<String> sheetNames = new ArrayList<>();
+  private XlsxSheet sheet;
+  private boolean sheetOpen;
+  private String sheetName;
+  private int part;
+  private int rows;
+  private boolean closed;
+
+  /**
+   * @param out 输出流，close()时一起关闭
+   */
+  public XlsxWriter(OutputStream out) {
+    this.target = out;
+    this.zip = new Zip(out);
+    // 导出更看重速度，xml的压缩率即使在最快的级别也很高
+    this.zip.setLevel(Deflater.BEST_SPEED);
+    this.out = new OutputStreamWriter(zip, UTF_8);
+  }
+
+  /**
+   * 开始一个新的工作表并写入标题行
+   *
+   * @param name 工作表名称，为空时使用Sheet1, Sheet2...
+   * @param argumentNames 参数名称
+   * @param argumentTypes 参数类型
+   * @param title 标题
+   * @param customDateFormat 自定义的日期格式 key: argumentName, value: format
+   */
+  public XlsxWriter sheet(String name, String[] argumentNames, String[] argumentTypes, String[] title, Map<String, String> customDateFormat) throws IOException {
+    XlsxSheet sheet = new XlsxSheet(styles, argumentNames, argumentTypes, title, customDateFormat);
+    endSheet();
+    this.sheet = sheet;
+    this.sheetName = name;
+    this.part = 1;
+    beginSheet();
+    return this;
+  }
+
+  public void write(Record record) throws IOException {
+    if (sheet == null) throw new IllegalStateException("Oop! call sheet() before write.");
+    if (sheet.isFull()) {
+      endSheet();
+      part++;
+      beginSheet();
+    }
+    sheet.row(out, record);
+    rows++;
+  }
+
+  /**
+   * 作为StreamKit.eachRecord的回调
+   */
+  @Override
+  public void call(Record row) throws IOException {
+    write(row);
+  }
+
+  /**
+   * 已经写入的数据行数(不包括标题)
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  private void beginSheet() throws IOException {
+    String name = StrKit.isBlank(sheetName) ? "Sheet" + (sheetNames.size() + 1) : sheetName;
+    if (part > 1) name = name + "_" + part;
+    sheetNames.add(name);
+    zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+    sheet.begin(out);
+    sheetOpen = true;
+  }
+
+  private void endSheet() throws IOException {
+    if (!sheetOpen) return;
+    sheetOpen = false;
+    sheet.end(out);
+    out.flush();
+    zip.closeEntry();
+  }
+
+  /**
+   * 写入工作簿的其他部分并关闭输出流
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      endSheet();
+      if (sheetNames.isEmpty()) {
+        // 工作簿至少需要一个工作表
+        sheetNames.add("Sheet1");
+        entry("xl/worksheets/sheet1.xml", XML_HEADER + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData/></worksheet>");
+      }
+      entry("[Content_Types].xml", contentTypes(sheetNames.size()));
+      entry("_rels/.rels", rootRels());
+      entry("xl/workbook.xml", workbook(sheetNames));
+      entry("xl/_rels/workbook.xml.rels", workbookRels(sheetNames.size()));
+      entry("xl/styles.xml", styles.toXml());
+      zip.finish();
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * 放弃写入: 不写入zip的结尾(central directory)，直接关闭输出流，得到的是无法打开的文件
+   * 已经close()时什么也不做
+   */
+  public void abort() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      zip.abort();
+    } finally {
+      target.close();
+    }
+  }
+
+  private void entry(String name, String content) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    out.write(content);
+    out.flush();
+    zip.closeEntry();
+  }
+
+  static String contentTypes(int sheets) {
+    StringBuilder xml = new StringBuilder(512 + sheets * 160);
+    xml.append(XML_HEADER)
+       .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+       .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+       .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+       .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+       .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+    for (int i = 1; i <= sheets; i++) {
+      xml.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+         .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+    }
+    return xml.append("</Types>").toString();
+  }
+
+  static String rootRels() {
+    return XML_HEADER
+        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+        + "</Relationships>";
+  }
+
+  /**
+   * 工作表名称: 最长31个字符，不能包含[]:*?/\，不能重复(不区分大小写)
+   */
+  static String workbook(List<String> sheetNames) {
+    StringBuilder xml = new StringBuilder(256 + sheetNames.size() * 64);
+    xml.append(XML_HEADER)
+       .append("<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" ")
+       .append("xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>");
+    Set<String> used = new HashSet<>();
+    for (int i = 1; i <= sheetNames.size(); i++) {
+      String name = sheetNames.get(i - 1).replaceAll("[\\[\\]:*?/\\\\]", "_");
+      if (name.length() > 31) name = name.substring(0, 31);
+      if (!used.add(name.toLowerCase())) {
+        String suffix = "(" + i + ")";
+        name = (name.length() + suffix.length() > 31 ? name.substring(0, 31 - suffix.length()) : name) + suffix;
+        used.add(name.toLowerCase());
+      }
+      xml.append("<sheet name=\"");
+      XlsxSheet.escape(xml, name);
+      xml.append("\" sheetId=\"").append(i).append("\" r:id=\"rId").append(i).append("\"/>");
+    }
+    return xml.append("</sheets></workbook>").toString();
+  }
+
+  static String workbookRels(int sheets) {
+    StringBuilder xml = new StringBuilder(256 + sheets * 160);
+    xml.append(XML_HEADER).append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+    for (int i = 1; i <= sheets; i++) {
+      xml.append("<Relationship Id=\"rId").append(i)
+         .append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet")
+         .append(i).append(".xml\"/>");
+    }
+    xml.append("<Relationship Id=\"rId").append(sheets + 1)
+       .append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>");
+    return xml.append("</Relationships>").toString();
+  }
+
+  /**
+   * ZipOutputStream.close()总是会写入zip的结尾，abort()只释放Deflater
+   */
+  private static final class Zip extends ZipOutputStream {
+    Zip(OutputStream out) {
+      super(out);
+    }
+
+    void abort() {
+      def.end();
+    }
+  }
+}
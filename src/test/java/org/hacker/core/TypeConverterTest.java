@@ -0,0 +1,156 @@
+package org.hacker.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * TypeConverter.parseTime()的快速路径(直接用Calendar计算)必须和SimpleDateFormat的结果一致，
+ * 包括lenient的进位，夏令时的空缺/重叠时间，以及抛出ParseException的输入
+ */
+public class TypeConverterTest {
+  private static TimeZone defaultTimeZone;
+
+  @BeforeClass
+  public static void setUp() {
+    // 有夏令时的时区: 2017-03-12 02:00~03:00不存在，2017-11-05 01:00~02:00出现两次
+    // 要在第一次调用parseTime之前设置，TypeConverter每个线程的Calendar创建时就确定了时区
+    defaultTimeZone = TimeZone.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+  }
+
+  @Test
+  public void testTimestamp() {
+    assertSame(true,
+        "2017-01-02 03:04:05",
+        "1970-01-01 00:00:00",
+        "2000-02-29 23:59:59",
+        // 格式之后的非数字内容被忽略
+        "2017-01-02 03:04:05.0",
+        "2017-01-02 03:04:05 +0800",
+        "2017-01-02 03:04:05abc");
+  }
+
+  @Test
+  public void testDate() {
+    assertSame(false,
+        "2017-01-02",
+        "1970-01-01",
+        "2000-02-29",
+        "2017-01-02 03:04:05",
+        "2017-01-02T03:04:05",
+        "2017-01-02abc");
+  }
+
+  @Test
+  public void testLenient() {
+    assertSame(true,
+        "2017-02-30 00:00:00",
+        "2017-13-01 00:00:00",
+        "2017-00-10 00:00:00",
+        "2017-01-00 00:00:00",
+        "2017-01-32 25:61:61",
+        "2017-12-31 24:00:00",
+        "2017-01-02 99:99:99");
+    assertSame(false,
+        "2017-02-30",
+        "2017-13-01",
+        "2017-00-00",
+        "2016-02-29",
+        "2017-02-29");
+  }
+
+  @Test
+  public void testDaylightSaving() {
+    assertSame(true,
+        // 空缺的时间
+        "2017-03-12 02:00:00",
+        "2017-03-12 02:30:00",
+        "2017-03-12 02:59:59",
+        "2017-03-12 03:00:00",
+        // 重叠的时间
+        "2017-11-05 00:59:59",
+        "2017-11-05 01:00:00",
+        "2017-11-05 01:30:00",
+        "2017-11-05 02:00:00");
+    assertSame(false,
+        "2017-03-12",
+        "2017-11-05");
+  }
+
+  @Test
+  public void testFallback() {
+    // 位数不固定的输入交给SimpleDateFormat
+    assertSame(true,
+        "2017-1-2 3:4:5",
+        "2017-01-02 3:04:05",
+        "17-01-02 03:04:05",
+        "20170-01-02 03:04:05",
+        "2017-01-02 03:04:050",
+        "2017-01-02 03:04:0512");
+    assertSame(false,
+        "2017-1-2",
+        "17-1-2",
+        "2017-01-020",
+        "2017-01-0212");
+  }
+
+  @Test
+  public void testMalformed() {
+    assertSame(true,
+        "",
+        " ",
+        "abc",
+        "2017-01-02",
+        "2017-01-02 03:04",
+        "2017/01/02 03:04:05",
+        "2017-01-02T03:04:05",
+        "2017-01-0x 03:04:05",
+        "2017-01-02 03-04-05",
+        " 2017-01-02 03:04:05",
+        "-2017-01-02 03:04:05");
+    assertSame(false,
+        "",
+        "abc",
+        "2017",
+        "2017-01",
+        "2017/01/02",
+        "2017-0a-02",
+        "20170102",
+        " 2017-01-02");
+  }
+
+  private static void assertSame(boolean withTime, String... inputs) {
+    String pattern = withTime ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd";
+    for (String s : inputs) {
+      assertEquals(pattern + " <" + s + ">", expected(pattern, s), actual(s, withTime));
+    }
+  }
+
+  private static String expected(String pattern, String s) {
+    try {
+      return String.valueOf(new SimpleDateFormat(pattern).parse(s).getTime());
+    } catch (ParseException e) {
+      return "ParseException";
+    }
+  }
+
+  private static String actual(String s, boolean withTime) {
+    try {
+      return String.valueOf(TypeConverter.parseTime(s, withTime));
+    } catch (ParseException e) {
+      return "ParseException";
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package org.hacker.module.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.sql.DataSource;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.jfinal.plugin.activerecord.Config;
+import com.jfinal.plugin.activerecord.DbKit;
+import com.jfinal.plugin.activerecord.Record;
+
+/**
+ * XlsxWriter和XlsxWorkbook的输出先用java.util.zip.ZipFile检查zip结构(中央目录，crc)，
+ * 再用POI的XSSFReader读回每个工作表的内容，包括超过MAX_ROWS行续写到name_2的情况
+ *
+ * XlsxWorkbook的数据来自一个只返回固定行的假数据源(不需要数据库)，查询参数就是行数
+ */
+public class XlsxRoundTripTest {
+  private static final String CONFIG_NAME = "xlsx-round-trip";
+  private static final String[] NAMES = { "id", "name", "amount", "created", "flag" };
+  private static final String[] TYPES = { "java.lang.Integer", "java.lang.String", "java.math.BigDecimal", "java.sql.Timestamp", "java.lang.Boolean" };
+  private static final String[] TITLE = { "编号", "名称", "金额", "创建时间", "标记" };
+  private static final long BASE_TIME;
+
+  static {
+    Calendar c = Calendar.getInstance();
+    c.clear();
+    c.set(2017, Calendar.JANUARY, 2, 3, 4, 5);
+    BASE_TIME = c.getTimeInMillis();
+  }
+
+  private static Config config;
+  private File file;
+
+  @BeforeClass
+  public static void setUpConfig() {
+    config = DbKit.getConfig(CONFIG_NAME);
+    if (config == null) {
+      config = new Config(CONFIG_NAME, fakeDataSource());
+      DbKit.addConfig(config);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("xlsx-round-trip", ".xlsx");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testWriter() throws Exception {
+    XlsxWriter writer = new XlsxWriter(new FileOutputStream(file));
+    writer.sheet("movie", NAMES, TYPES, TITLE, null);
+    for (int i = 1; i <= 3; i++) writer.write(row(i));
+    writer.write(new Record().set("id", 4).set("name", "a<b & \"c\">d\u0001"));
+    writer.sheet("empty", NAMES, TYPES, TITLE, null);
+    writer.close();
+    assertEquals(4, writer.getRows());
+
+    assertZip(2);
+    List<Sheet> sheets = read(file);
+    assertEquals(2, sheets.size());
+    Sheet movie = sheets.get(0);
+    assertEquals("movie", movie.name);
+    assertEquals(5, movie.rows);
+    assertArrayEquals(TITLE, movie.cells(0));
+    for (int i = 1; i <= 3; i++) assertRow(i, movie.cells(i));
+    // 空值的数字写成0，其他类型不写单元格；XML不允许的控制字符被去掉
+    String[] cells = movie.cells(4);
+    assertEquals("4", cells[0]);
+    assertEquals("a<b & \"c\">d", cells[1]);
+    assertEquals(0, BigDecimal.ZERO.compareTo(new BigDecimal(cells[2])));
+    assertNull(cells[3]);
+    assertNull(cells[4]);
+    Sheet empty = sheets.get(1);
+    assertEquals("empty", empty.name);
+    assertEquals(1, empty.rows);
+    assertArrayEquals(TITLE, empty.cells(0));
+  }
+
+  @Test
+  public void testWriterWithoutSheet() throws Exception {
+    new XlsxWriter(new FileOutputStream(file)).close();
+    assertZip(1);
+    List<Sheet> sheets = read(file);
+    assertEquals(1, sheets.size());
+    assertEquals("Sheet1", sheets.get(0).name);
+    assertEquals(0, sheets.get(0).rows);
+  }
+
+  @Test
+  public void testWriterAbort() throws Exception {
+    XlsxWriter writer = new XlsxWriter(new FileOutputStream(file));
+    writer.sheet("movie", NAMES, TYPES, TITLE, null);
+    writer.write(row(1));
+    writer.abort();
+    try {
+      new ZipFile(file).close();
+      throw new AssertionError("aborted xlsx should not be a valid zip");
+    } catch (IOException e) {
+      // 没有中央目录
+    }
+  }
+
+  @Test
+  public void testWriterRollover() throws Exception {
+    int total = XlsxSheet.MAX_ROWS + 1;
+    XlsxWriter writer = new XlsxWriter(new FileOutputStream(file));
+    writer.sheet("big", NAMES, TYPES, TITLE, null);
+    for (int i = 1; i <= total; i++) writer.write(row(i));
+    writer.close();
+    assertEquals(total, writer.getRows());
+
+    assertZip(2);
+    assertRollover(read(file), total);
+  }
+
+  @Test
+  public void testWorkbook() throws Exception {
+    int rows = new XlsxWorkbook()
+        .addSheet("movie", "select", new Object[] { 3 }, NAMES, TYPES, TITLE, null)
+        .addSheet("empty", "select", new Object[] { 0 }, NAMES, TYPES, TITLE, null)
+        .addSheet(null, "select", new Object[] { 1 }, NAMES, TYPES, TITLE, null)
+        .setConfig(config)
+        .setParallelism(2)
+        .write(file.getPath());
+    assertEquals(4, rows);
+
+    assertZip(3);
+    List<Sheet> sheets = read(file);
+    assertEquals(3, sheets.size());
+    assertEquals("movie", sheets.get(0).name);
+    assertEquals(4, sheets.get(0).rows);
+    for (int i = 1; i <= 3; i++) assertRow(i, sheets.get(0).cells(i));
+    assertEquals("empty", sheets.get(1).name);
+    assertEquals(1, sheets.get(1).rows);
+    assertEquals("Sheet3", sheets.get(2).name);
+    assertEquals(2, sheets.get(2).rows);
+    assertArrayEquals(TITLE, sheets.get(2).cells(0));
+    assertRow(1, sheets.get(2).cells(1));
+  }
+
+  @Test
+  public void testWorkbookRollover() throws Exception {
+    int total = XlsxSheet.MAX_ROWS + 1;
+    int rows = new XlsxWorkbook()
+        .addSheet("big", "select", new Object[] { total }, NAMES, TYPES, TITLE, null)
+        .setConfig(config)
+        .write(file.getPath());
+    assertEquals(total, rows);
+
+    assertZip(2);
+    assertRollover(read(file), total);
+  }
+
+  /**
+   * 第一个工作表正好MAX_ROWS行(标题 + MAX_ROWS - 1行数据)，剩下的2行在big_2，标题行重复
+   */
+  private static void assertRollover(List<Sheet> sheets, int total) {
+    assertEquals(2, sheets.size());
+    Sheet first = sheets.get(0), second = sheets.get(1);
+    assertEquals("big", first.name);
+    assertEquals(XlsxSheet.MAX_ROWS, first.rows);
+    assertArrayEquals(TITLE, first.cells(0));
+    assertRow(1, first.cells(1));
+    assertRow(XlsxSheet.MAX_ROWS - 1, first.last);
+    assertEquals("big_2", second.name);
+    assertEquals(1 + total - (XlsxSheet.MAX_ROWS - 1), second.rows);
+    assertArrayEquals(TITLE, second.cells(0));
+    assertRow(XlsxSheet.MAX_ROWS, second.cells(1));
+    assertRow(total, second.last);
+  }
+
+  /**
+   * 每个条目都能完整读出(ZipFile读取时校验crc)，工作表之外的部分都存在
+   */
+  private void assertZip(int sheets) throws IOException {
+    Set<String> expected = new HashSet<>();
+    expected.add("[Content_Types].xml");
+    expected.add("_rels/.rels");
+    expected.add("xl/workbook.xml");
+    expected.add("xl/_rels/workbook.xml.rels");
+    expected.add("xl/styles.xml");
+    for (int i = 1; i <= sheets; i++) expected.add("xl/worksheets/sheet" + i + ".xml");
+    Set<String> names = new HashSet<>();
+    byte[] buf = new byte[64 * 1024];
+    try (ZipFile zip = new ZipFile(file)) {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        assertTrue("duplicate entry " + entry.getName(), names.add(entry.getName()));
+        long size = 0;
+        try (InputStream in = zip.getInputStream(entry)) {
+          for (int n; (n = in.read(buf)) != -1;) size += n;
+        }
+        assertEquals(entry.getName(), entry.getSize(), size);
+      }
+    }
+    assertEquals(expected, names);
+  }
+
+  private static Record row(int i) {
+    return new Record()
+        .set("id", i)
+        .set("name", "name-" + i)
+        .set("amount", BigDecimal.valueOf(i, 2))
+        .set("created", i % 2 == 0 ? null : new Timestamp(BASE_TIME + i * 1000L))
+        .set("flag", i % 3 == 0);
+  }
+
+  private static void assertRow(int i, String[] cells) {
+    assertEquals(String.valueOf(i), cells[0]);
+    assertEquals("name-" + i, cells[1]);
+    assertEquals(0, BigDecimal.valueOf(i, 2).compareTo(new BigDecimal(cells[2])));
+    if (i % 2 == 0) {
+      assertNull(cells[3]);
+    } else {
+      assertEquals(BASE_TIME + i * 1000L, DateUtil.getJavaDate(Double.parseDouble(cells[3])).getTime());
+    }
+    assertEquals(i % 3 == 0 ? "TRUE" : "FALSE", cells[4]);
+  }
+
+  // ----- POI
+
+  /**
+   * 读回的一个工作表，只保留前几行和最后一行
+   */
+  private static final class Sheet implements SheetContentsHandler {
+    private static final int KEEP = 8;
+    String name;
+    int rows;
+    final TreeMap<Integer, String[]> head = new TreeMap<>();
+    String[] last;
+    private String[] current;
+
+    String[] cells(int row) {
+      String[] cells = head.get(row);
+      assertFalse("no row " + row, cells == null);
+      return cells;
+    }
+
+    @Override
+    public void startRow(int row) {
+      assertEquals("rows must be continuous", rows, row);
+      current = new String[NAMES.length];
+    }
+
+    @Override
+    public void endRow(int row) {
+      if (row < KEEP) head.put(row, current);
+      last = current;
+      rows++;
+    }
+
+    @Override
+    public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+      current[new CellReference(cellReference).getCol()] = formattedValue;
+    }
+
+    @Override
+    public void headerFooter(String text, boolean isHeader, String tagName) {
+    }
+  }
+
+  private static List<Sheet> read(File file) throws Exception {
+    List<Sheet> result = new ArrayList<>();
+    OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ);
+    try {
+      XSSFReader reader = new XSSFReader(pkg);
+      ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+      XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+      while (sheets.hasNext()) {
+        try (InputStream in = sheets.next()) {
+          Sheet sheet = new Sheet();
+          sheet.name = sheets.getSheetName();
+          XMLReader parser = SAXHelper.newXMLReader();
+          parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(), strings, sheet, new RawDataFormatter(), false));
+          parser.parse(new InputSource(in));
+          result.add(sheet);
+        }
+      }
+    } finally {
+      pkg.revert();
+    }
+    return result;
+  }
+
+  /**
+   * 和ExcelReader一样返回原始的数值，日期是Excel的序号
+   */
+  private static final class RawDataFormatter extends DataFormatter {
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString) {
+      return plain(value);
+    }
+
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+      return plain(value);
+    }
+
+    private static String plain(double value) {
+      return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  // ----- 假数据源
+
+  /**
+   * 每个查询返回第一个参数指定的行数，第i行(从1开始)和row(i)相同
+   */
+  private static DataSource fakeDataSource() {
+    return proxy(DataSource.class, new Handler() {
+      @Override
+      Object invoke(String method, Object[] args) {
+        return "getConnection".equals(method) ? connection() : null;
+      }
+    });
+  }
+
+  private static Connection connection() {
+    return proxy(Connection.class, new Handler() {
+      @Override
+      Object invoke(String method, Object[] args) {
+        return "prepareStatement".equals(method) ? statement() : null;
+      }
+    });
+  }
+
+  private static PreparedStatement statement() {
+    final int[] count = new int[1];
+    return proxy(PreparedStatement.class, new Handler() {
+      @Override
+      Object invoke(String method, Object[] args) {
+        if ("setObject".equals(method) && (Integer) args[0] == 1) count[0] = (Integer) args[1];
+        return "executeQuery".equals(method) ? resultSet(count[0]) : null;
+      }
+    });
+  }
+
+  private static ResultSet resultSet(final int count) {
+    final int[] index = new int[1];
+    final Record[] current = new Record[1];
+    return proxy(ResultSet.class, new Handler() {
+      @Override
+      Object invoke(String method, Object[] args) {
+        switch (method) {
+        case "getMetaData":
+          return metaData();
+        case "next":
+          if (index[0] >= count) return false;
+          current[0] = row(++index[0]);
+          return true;
+        case "getObject":
+          return current[0].get(NAMES[(Integer) args[0] - 1]);
+        default:
+          return null;
+        }
+      }
+    });
+  }
+
+  private static ResultSetMetaData metaData() {
+    final int[] types = { Types.INTEGER, Types.VARCHAR, Types.DECIMAL, Types.TIMESTAMP, Types.BOOLEAN };
+    return proxy(ResultSetMetaData.class, new Handler() {
+      @Override
+      Object invoke(String method, Object[] args) {
+        switch (method) {
+        case "getColumnCount":
+          return NAMES.length;
+        case "getColumnLabel":
+          return NAMES[(Integer) args[0] - 1];
+        case "getColumnType":
+          return types[(Integer) args[0] - 1];
+        default:
+          return null;
+        }
+      }
+    });
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return type.cast(Proxy.newProxyInstance(XlsxRoundTripTest.class.getClassLoader(), new Class<?>[] { type }, handler));
+  }
+
+  /**
+   * 没有处理的方法(close, setFetchSize, cancel...)什么也不做，返回类型的默认值
+   */
+  private abstract static class Handler implements InvocationHandler {
+    abstract Object invoke(String method, Object[] args);
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if ("toString".equals(method.getName())) return getClass().getName();
+      if ("hashCode".equals(method.getName())) return System.identityHashCode(proxy);
+      if ("equals".equals(method.getName())) return proxy == args[0];
+      Object result = invoke(method.getName(), args);
+      if (result != null || !method.getReturnType().isPrimitive()) return result;
+      Class<?> type = method.getReturnType();
+      if (type == boolean.class) return false;
+      if (type == void.class) return null;
+      if (type == long.class) return 0L;
+      return 0;
+    }
+  }
+}